@@ -0,0 +1,314 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BatchedBookWriter appends lines of books to the csv file of a data file by
+ * batches. The lines are kept in a buffer and written all at once (a group
+ * commit) when the buffer reaches batchSize bytes, or maxDelay after the first
+ * line of the batch, or when flush is called; the file stays open between the
+ * batches. With sync, each batch is also forced to the disk.
+ *
+ * A batch is written under the lock of the data file, which gives its
+ * identifiers to the lines as DataFile.addLine does, and under the write lock
+ * of its file and the lock of its byte at DataFile.LOCK_POSITION, as the
+ * rewrites are. If the file was replaced since the batch before (by any data
+ * file or program), it is opened again. The writer must be closed to write its
+ * last batch.
+ */
+public class BatchedBookWriter implements Closeable {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(BatchedBookWriter.class);
+
+	/**
+	 * The default size of a batch, in bytes
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1 << 16;
+
+	/**
+	 * The default delay before a batch is written, in milliseconds
+	 */
+	public static final long DEFAULT_MAX_DELAY = 50;
+
+	/**
+	 * The thread writing the batches that waited for maxDelay, shared by all
+	 * the writers
+	 */
+	private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "BatchedBookWriter flusher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final DataFile dataFile;
+	private final int batchSize;
+	private final long maxDelay;
+	private final TimeUnit unit;
+	private final boolean sync;
+
+	private ByteBuffer buffer;
+	/**
+	 * The identifiers of the lines of the buffer
+	 */
+	private final List<Long> pendingIds = new ArrayList<>();
+	/**
+	 * The flush of the batch after maxDelay, null if the buffer is empty
+	 */
+	private ScheduledFuture<?> timedFlush;
+
+	private FileChannel channel;
+	/**
+	 * The key of the file when the channel was opened, null if unknown
+	 */
+	private Object fileKey;
+	private boolean closed;
+
+	/**
+	 * Writer of batches of DEFAULT_BATCH_SIZE bytes or DEFAULT_MAX_DELAY
+	 * milliseconds, without forcing them to the disk
+	 *
+	 * @param dataFile
+	 */
+	public BatchedBookWriter(DataFile dataFile) {
+		this(dataFile, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY, TimeUnit.MILLISECONDS, false);
+	}
+
+	/**
+	 * @param dataFile
+	 *            the data file to append to
+	 * @param batchSize
+	 *            the size in bytes from which a batch is written
+	 * @param maxDelay
+	 *            the longest time a line waits in the buffer
+	 * @param unit
+	 *            the unit of maxDelay
+	 * @param sync
+	 *            true to force each batch to the disk
+	 */
+	public BatchedBookWriter(DataFile dataFile, int batchSize, long maxDelay, TimeUnit unit, boolean sync) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size: " + batchSize);
+		if (maxDelay <= 0)
+			throw new IllegalArgumentException("Max delay: " + maxDelay);
+		this.dataFile = dataFile;
+		this.batchSize = batchSize;
+		this.maxDelay = maxDelay;
+		this.unit = unit;
+		this.sync = sync;
+		this.buffer = ByteBuffer.allocate(batchSize);
+	}
+
+	/**
+	 * Add a line to the batch, with a new identifier if it has none. The line
+	 * is written with its batch.
+	 *
+	 * @param line
+	 *            a line of csv
+	 * @return the identifier of the book of the line
+	 * @throws UncheckedIOException
+	 *             if the batch was full and could not be written
+	 */
+	public synchronized long add(String line) {
+		long id = append(line);
+		if (buffer.position() >= batchSize)
+			flush();
+		return id;
+	}
+
+	/**
+	 * Add the lines in one transaction: they are written at once with the
+	 * lines waiting in the buffer, and forced to the disk with sync. If the
+	 * write fails, the file is cut back to its length before the batch.
+	 *
+	 * @param lines
+	 *            lines of csv
+	 * @return the identifiers of the books of the lines
+	 * @throws UncheckedIOException
+	 *             if the batch cannot be written, in which case none of its
+	 *             lines is
+	 */
+	public synchronized List<Long> addBooks(List<String> lines) {
+		List<Long> ids = new ArrayList<>(lines.size());
+		for (String line : lines)
+			ids.add(append(line));
+		flush();
+		return ids;
+	}
+
+	/**
+	 * Write the lines of the buffer, if any
+	 *
+	 * @throws UncheckedIOException
+	 *             if the batch cannot be written, in which case none of its
+	 *             lines is
+	 */
+	public synchronized void flush() {
+		if (timedFlush != null) {
+			timedFlush.cancel(false);
+			timedFlush = null;
+		}
+		if (buffer.position() == 0)
+			return;
+		buffer.flip();
+		try {
+			synchronized (dataFile) {
+				long lengthBefore;
+				long stamp = dataFile.getFileLock().writeLock();
+				try {
+					FileLock lock = lockCurrentFile();
+					lengthBefore = channel.size();
+					try {
+						while (buffer.hasRemaining())
+							channel.write(buffer);
+						if (sync)
+							channel.force(false);
+					} catch (IOException e) {
+						channel.truncate(lengthBefore);
+						throw e;
+					} finally {
+						lock.release();
+					}
+				} finally {
+					dataFile.getFileLock().unlockWrite(stamp);
+				}
+				dataFile.appended(lengthBefore, pendingIds);
+			}
+			LOGGER.debug("Wrote a batch of {} books", pendingIds.size());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			buffer.clear();
+			pendingIds.clear();
+		}
+	}
+
+	/**
+	 * Write the last batch and close the file
+	 *
+	 * @throws UncheckedIOException
+	 *             if the last batch cannot be written
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		try {
+			flush();
+		} finally {
+			closed = true;
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					LOGGER.error(e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Put the line in the buffer, with its identifier
+	 *
+	 * @return the identifier of the line
+	 */
+	private long append(String line) {
+		if (closed)
+			throw new IllegalStateException("The writer is closed");
+		List<String> values = DataFile.parseLine(line);
+		long given = DataFile.idOf(values);
+		long id = dataFile.reserveId(given);
+		if (given == 0)
+			line = DataFile.toLine(DataFile.withId(values, id));
+		byte[] bytes = (line + "\r\n").getBytes(DataFile.CHARSET);
+		if (buffer.remaining() < bytes.length) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes.length));
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+		if (buffer.position() == 0)
+			timedFlush = FLUSHER.schedule(this::flushLater, maxDelay, unit);
+		buffer.put(bytes);
+		pendingIds.add(id);
+		return id;
+	}
+
+	/**
+	 * Flush from the flusher thread, which has no caller to throw to
+	 */
+	private void flushLater() {
+		try {
+			flush();
+		} catch (UncheckedIOException e) {
+			LOGGER.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Lock the byte at DataFile.LOCK_POSITION of the csv file, opening it again
+	 * if the channel is not open on it (the file may have been rewritten
+	 * since). When the keys of the files are unknown, the file is opened for
+	 * each batch.
+	 *
+	 * @return the lock, on the channel
+	 */
+	private FileLock lockCurrentFile() throws IOException {
+		while (true) {
+			if (channel == null || fileKey == null)
+				open();
+			FileLock lock = channel.lock(DataFile.LOCK_POSITION, 1, false);
+			// a rewrite cannot replace the file while it is locked
+			if (fileKey == null || fileKey.equals(currentKey()))
+				return lock;
+			lock.release();
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Open the csv file of the data file for appending, closing the former
+	 * one
+	 */
+	private void open() throws IOException {
+		if (channel != null)
+			channel.close();
+		// read before opening: if the file is replaced meanwhile, the keys
+		// differ and the file is opened again
+		fileKey = currentKey();
+		channel = FileChannel.open(Paths.get(dataFile.getBooksFilePath()), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * @return the key of the csv file now at the path of the data file, null
+	 *         if it does not exist or has no key on this system
+	 */
+	private Object currentKey() throws IOException {
+		try {
+			return Files.readAttributes(Paths.get(dataFile.getBooksFilePath()), BasicFileAttributes.class).fileKey();
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+
+/**
+ * CatalogCache keeps the books of a data file in memory, to be shared by the
+ * actions of the window. The file is read again only when it has changed: when
+ * the length or the date of the csv file or of its tombstones differ from
+ * their reading (see FileStamp).
+ *
+ * A file modified shortly before it was read may be modified again without
+ * its date changing, the date having a coarse precision on some file
+ * systems. While the date of the csv file is that recent, its CRC32 is also
+ * compared with the one of its reading.
+ */
+public class CatalogCache {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(CatalogCache.class);
+
+	/**
+	 * The coarsest precision of the date of a file (FAT has 2 seconds), in
+	 * milliseconds
+	 */
+	static final long DATE_PRECISION = 2000;
+
+	private final DataFile dataFile;
+	private final File csv;
+	private final File tombstones;
+
+	/**
+	 * The books read, frozen; null if the file was not read
+	 */
+	private List<Book> books;
+	private FileStamp csvStamp;
+	private FileStamp tombstonesStamp;
+	/**
+	 * True while the date of the csv file is too close to its reading to be
+	 * trusted
+	 */
+	private boolean racy;
+	private long checksum;
+
+	/**
+	 * @param dataFile
+	 *            the data file to read
+	 */
+	public CatalogCache(DataFile dataFile) {
+		this.dataFile = dataFile;
+		this.csv = new File(dataFile.getBooksFilePath());
+		this.tombstones = new File(dataFile.getBooksFilePath() + DataFile.TOMBSTONES_SUFFIX);
+	}
+
+	/**
+	 * Return the books of the data file, read again only if the file has
+	 * changed. The books are copies, which the caller may modify.
+	 *
+	 * @return the books of the data file, as DataFile.read gives them
+	 */
+	public synchronized List<Book> getBooks() {
+		if (!isValid()) {
+			// the identifiers are given first, since this may rewrite the csv
+			// file; the stamps are taken before reading: if the file changes
+			// meanwhile, it will be read again
+			dataFile.assignMissingIds();
+			csvStamp = FileStamp.of(csv);
+			tombstonesStamp = FileStamp.of(tombstones);
+			racy = isRecent(csvStamp);
+			if (racy)
+				checksum = checksum();
+			books = dataFile.readValues();
+			LOGGER.debug("Catalog read: {} books", books.size());
+		}
+		List<Book> copies = new ArrayList<>(books.size());
+		for (Book book : books)
+			copies.add(book.copy());
+		return copies;
+	}
+
+	/**
+	 * Forget the books read, so that the file is read again
+	 */
+	public synchronized void invalidate() {
+		books = null;
+	}
+
+	/**
+	 * @return true if the books read are those of the file
+	 */
+	private boolean isValid() {
+		if (books == null || !csvStamp.isOf(csv) || !tombstonesStamp.isOf(tombstones))
+			return false;
+		if (!racy)
+			return true;
+		if (checksum() != checksum)
+			return false;
+		racy = isRecent(csvStamp);
+		return true;
+	}
+
+	/**
+	 * @return true if the date of the file is too close to now to tell a
+	 *         later modification
+	 */
+	private static boolean isRecent(FileStamp stamp) {
+		return System.currentTimeMillis() - stamp.getLastModified() < DATE_PRECISION;
+	}
+
+	/**
+	 * @return the CRC32 of the csv file, -1 if it cannot be read
+	 */
+	private long checksum() {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		try (InputStream in = Files.newInputStream(csv.toPath())) {
+			int read;
+			while ((read = in.read(buffer)) > 0)
+				crc.update(buffer, 0, read);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+			return -1;
+		}
+		return crc.getValue();
+	}
+
+}
@@ -0,0 +1,211 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CatalogOffsetIndex knows where each record of a csv file of books is: its
+ * offset in bytes and its length (without the line break), by identifier of
+ * the book. It also gives the identifiers of the books by their first four
+ * values (names of the author, title and year).
+ *
+ * The index is built by reading the file once, and built again when the
+ * length or the date of the file has changed (see FileStamp); lines appended
+ * by the data file are indexed alone. As in ParallelCsvLoader, the values must
+ * not contain line breaks. The index is used under the lock of its data file.
+ */
+final class CatalogOffsetIndex {
+
+	/**
+	 * The place of a record in the file
+	 */
+	static final class Place {
+
+		private final long offset;
+		private final int length;
+
+		Place(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		long getOffset() {
+			return offset;
+		}
+
+		int getLength() {
+			return length;
+		}
+	}
+
+	private final File file;
+
+	/**
+	 * The stamp of the file when it was indexed, null if it was not
+	 */
+	private FileStamp stamp;
+	private final Map<Long, Place> places = new HashMap<>();
+	private final Map<List<String>, List<Long>> idsByKey = new HashMap<>();
+
+	CatalogOffsetIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @param id
+	 *            the identifier of a book
+	 * @return the place of its record, null if the file has none
+	 * @throws IOException
+	 *             if the file must be indexed and cannot be read
+	 */
+	Place get(long id) throws IOException {
+		refresh();
+		return places.get(id);
+	}
+
+	/**
+	 * @param values
+	 *            at least the first four values of a record
+	 * @return the identifiers of the records beginning with these values
+	 * @throws IOException
+	 *             if the file must be indexed and cannot be read
+	 */
+	List<Long> idsOf(List<String> values) throws IOException {
+		refresh();
+		List<Long> ids = idsByKey.get(keyOf(values));
+		return ids == null ? Collections.<Long> emptyList() : new ArrayList<>(ids);
+	}
+
+	/**
+	 * Index the file again if it has changed since it was indexed
+	 */
+	void refresh() throws IOException {
+		if (stamp != null && stamp.isOf(file))
+			return;
+		places.clear();
+		idsByKey.clear();
+		stamp = null;
+		scan(0);
+		stamp = FileStamp.of(file);
+	}
+
+	/**
+	 * Index the lines appended to the file, if it was indexed when it had
+	 * the given length; otherwise it will be indexed again when used
+	 *
+	 * @param lengthBefore
+	 *            the length of the file before the lines
+	 */
+	void appended(long lengthBefore) throws IOException {
+		if (stamp == null || stamp.getLength() != lengthBefore)
+			return;
+		scan(lengthBefore);
+		stamp = FileStamp.of(file);
+	}
+
+	/**
+	 * Take into account a record written over its former place by the data
+	 * file, the index being up to date before
+	 *
+	 * @param id
+	 * @param oldValues
+	 *            the former values of the record
+	 * @param newValues
+	 *            the new values of the record
+	 */
+	void rewritten(long id, List<String> oldValues, List<String> newValues) {
+		if (stamp == null)
+			return;
+		removeKey(id, oldValues);
+		addKey(id, newValues);
+		stamp = FileStamp.of(file);
+	}
+
+	/**
+	 * Index the records from the offset, which must begin a line
+	 */
+	private void scan(long from) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			byte[] line = new byte[256];
+			int lineLength = 0;
+			long lineStart = from;
+			long position = from;
+			boolean header = from == 0;
+			while (true) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read <= 0)
+					break;
+				for (int index = 0; index < read; index++) {
+					byte b = buffer.get(index);
+					if (b == '\n') {
+						if (!header)
+							index(line, lineLength, lineStart);
+						header = false;
+						lineLength = 0;
+						lineStart = position + index + 1;
+					} else {
+						if (lineLength == line.length)
+							line = Arrays.copyOf(line, 2 * line.length);
+						line[lineLength++] = b;
+					}
+				}
+				position += read;
+			}
+			if (lineLength > 0 && !header)
+				index(line, lineLength, lineStart);
+		}
+	}
+
+	private void index(byte[] line, int lineLength, long lineStart) {
+		int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+		if (length == 0)
+			return;
+		List<String> values = DataFile.parseLine(new String(line, 0, length, DataFile.CHARSET));
+		long id = DataFile.idOf(values);
+		if (id == 0)
+			return;
+		places.put(id, new Place(lineStart, length));
+		addKey(id, values);
+	}
+
+	private void addKey(long id, List<String> values) {
+		List<String> key = keyOf(values);
+		List<Long> ids = idsByKey.get(key);
+		if (ids == null) {
+			ids = new ArrayList<>(1);
+			idsByKey.put(key, ids);
+		}
+		ids.add(id);
+	}
+
+	private void removeKey(long id, List<String> values) {
+		List<String> key = keyOf(values);
+		List<Long> ids = idsByKey.get(key);
+		if (ids != null && ids.remove(id) && ids.isEmpty())
+			idsByKey.remove(key);
+	}
+
+	/**
+	 * @return the first four values, null being ""
+	 */
+	private static List<String> keyOf(List<String> values) {
+		List<String> key = new ArrayList<>(4);
+		for (int index = 0; index < 4; index++) {
+			String value = index < values.size() ? values.get(index) : null;
+			key.add(value == null ? "" : value);
+		}
+		return key;
+	}
+
+}
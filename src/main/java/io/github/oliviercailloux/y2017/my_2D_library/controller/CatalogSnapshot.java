@@ -0,0 +1,147 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.BookTable;
+
+/**
+ * CatalogSnapshot keeps a binary copy of the books of a data file next to its
+ * csv file (the path of the csv file followed by ".snapshot"), so that the
+ * catalog is loaded by mapping the snapshot and copying its columns instead of
+ * parsing the csv file.
+ *
+ * The snapshot begins with a magic number, the version of its format, and the
+ * stamps (see FileStamp) of the csv file and of its tombstones when they were
+ * read; then comes the table of the books (see BookTable.write). The snapshot
+ * is written again when it is missing, of another format, or older than the
+ * csv file or its tombstones.
+ */
+public class CatalogSnapshot {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(CatalogSnapshot.class);
+
+	/**
+	 * The suffix of the file of the snapshot
+	 */
+	public static final String SUFFIX = ".snapshot";
+
+	/**
+	 * "BKSN" in ASCII
+	 */
+	private static final int MAGIC = 0x424B534E;
+
+	/**
+	 * The version of the format, to change with the format
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	private final DataFile dataFile;
+
+	/**
+	 * @param dataFile
+	 *            the data file of the csv file
+	 */
+	public CatalogSnapshot(DataFile dataFile) {
+		this.dataFile = dataFile;
+	}
+
+	/**
+	 * Load the books from the snapshot, after writing it again from the csv
+	 * file if it is not up to date. If the snapshot cannot be written, the
+	 * books read from the csv file are returned anyway.
+	 *
+	 * @return the table of the books of the data file
+	 */
+	public BookTable load() {
+		// the identifiers are given first, since this may rewrite the csv file
+		dataFile.assignMissingIds();
+		File csv = new File(dataFile.getBooksFilePath());
+		File tombstones = new File(dataFile.getBooksFilePath() + DataFile.TOMBSTONES_SUFFIX);
+		FileStamp csvStamp = FileStamp.of(csv);
+		FileStamp tombstonesStamp = FileStamp.of(tombstones);
+		File snapshot = getFile();
+		if (snapshot.exists()) {
+			try {
+				BookTable table = read(snapshot, csvStamp, tombstonesStamp);
+				if (table != null)
+					return table;
+				LOGGER.info("Snapshot out of date: " + snapshot);
+			} catch (IOException | BufferUnderflowException e) {
+				LOGGER.error("Unreadable snapshot " + snapshot + ": " + e);
+			}
+		}
+		// the stamps are taken before reading: if the csv file changes
+		// meanwhile, the snapshot will be found out of date
+		BookTable table = dataFile.readTable();
+		try {
+			write(table, csvStamp, tombstonesStamp);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+		return table;
+	}
+
+	/**
+	 * @return the file of the snapshot
+	 */
+	public File getFile() {
+		return new File(dataFile.getBooksFilePath() + SUFFIX);
+	}
+
+	/**
+	 * @return the table of the snapshot, null if it is of another format or
+	 *         not of these stamps
+	 */
+	private static BookTable read(File snapshot, FileStamp csvStamp, FileStamp tombstonesStamp) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+				return null;
+			if (!readStamp(buffer).equals(csvStamp) || !readStamp(buffer).equals(tombstonesStamp))
+				return null;
+			return BookTable.read(buffer);
+		}
+	}
+
+	private static FileStamp readStamp(ByteBuffer buffer) {
+		long length = buffer.getLong();
+		return FileStamp.of(length, buffer.getLong());
+	}
+
+	/**
+	 * Write the snapshot in a temporary file which then replaces it
+	 */
+	private void write(BookTable table, FileStamp csvStamp, FileStamp tombstonesStamp) throws IOException {
+		Path path = getFile().toPath().toAbsolutePath();
+		Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				for (FileStamp stamp : new FileStamp[] { csvStamp, tombstonesStamp }) {
+					out.writeLong(stamp.getLength());
+					out.writeLong(stamp.getLastModified());
+				}
+				table.write(out);
+			}
+			DataFile.replace(temp, path);
+			LOGGER.debug("Snapshot written: {}", path);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+}
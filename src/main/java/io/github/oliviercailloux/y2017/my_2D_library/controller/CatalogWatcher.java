@@ -0,0 +1,307 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+import io.github.oliviercailloux.y2017.my_2D_library.model.Library;
+
+/**
+ * CatalogWatcher keeps a library up to date with the csv file of a data file
+ * while other programs append books to it. It remembers the offset after the
+ * last line read: when the file grows, only the new lines are parsed and their
+ * books added to the library; when books are deleted (see DataFile), they are
+ * removed from it. The whole file is read again and the library reshelved only
+ * when the file was truncated or rewritten, which is told by its file key, its
+ * length, and the last bytes read.
+ *
+ * The lines appended without an identifier are given one in place (see
+ * DataFile.giveTailIds) before being read, so that the file is not rewritten
+ * for them, which would reload all the books.
+ *
+ * The library is changed through the executor, for instance
+ * SwingUtilities::invokeLater for a library shown in a window. A line being
+ * written (without its line break yet) is read with the next change. As in
+ * ParallelCsvLoader, the values must not contain line breaks.
+ */
+public class CatalogWatcher implements Closeable {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(CatalogWatcher.class);
+
+	/**
+	 * The number of bytes before the offset compared to tell an append from a
+	 * rewrite
+	 */
+	private static final int TAIL_SIZE = 64;
+
+	private final DataFile dataFile;
+	private final Supplier<Library> library;
+	private final Executor executor;
+	private final Path csv;
+	private final Path tombstones;
+
+	/**
+	 * The offset just after the last line read
+	 */
+	private long offset;
+	/**
+	 * The bytes just before the offset
+	 */
+	private byte[] tail = new byte[0];
+	/**
+	 * The stamp and the key of the file when it was last read
+	 */
+	private FileStamp stamp;
+	private Object fileKey;
+	private Set<Long> deletedIds = new HashSet<>();
+
+	private WatchService watchService;
+	private Thread thread;
+
+	/**
+	 * @param dataFile
+	 *            the data file to watch
+	 * @param library
+	 *            gives the library to change, which must have the books of
+	 *            the file when the watcher starts
+	 * @param executor
+	 *            runs the changes of the library
+	 */
+	public CatalogWatcher(DataFile dataFile, Supplier<Library> library, Executor executor) {
+		this.dataFile = dataFile;
+		this.library = library;
+		this.executor = executor;
+		this.csv = Paths.get(dataFile.getBooksFilePath()).toAbsolutePath();
+		this.tombstones = Paths.get(dataFile.getBooksFilePath() + DataFile.TOMBSTONES_SUFFIX).toAbsolutePath();
+	}
+
+	/**
+	 * Take the file as it is now as read, then watch its directory on a daemon
+	 * thread
+	 *
+	 * @throws IOException
+	 *             if the file or its directory cannot be read
+	 */
+	public synchronized void start() throws IOException {
+		dataFile.assignMissingIds();
+		deletedIds = dataFile.getDeletedIds();
+		fileKey = fileKey();
+		stamp = FileStamp.of(csv.toFile());
+		try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+			offset = DataFile.lastLineEnd(channel, channel.size());
+			tail = readTail(channel, offset);
+		}
+		watchService = csv.getFileSystem().newWatchService();
+		csv.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		WatchService service = watchService;
+		thread = new Thread(() -> watch(service), "CatalogWatcher " + csv.getFileName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop watching
+	 */
+	@Override
+	public synchronized void close() {
+		if (watchService == null)
+			return;
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+		thread.interrupt();
+		watchService = null;
+	}
+
+	/**
+	 * @param service
+	 *            the service of this watch, given since the field is reset by
+	 *            close, which may come before the thread runs
+	 */
+	private void watch(WatchService service) {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					Object context = event.context();
+					changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+							|| csv.getFileName().equals(context) || tombstones.getFileName().equals(context);
+				}
+				if (changed)
+					check();
+				if (!key.reset())
+					return;
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			LOGGER.debug("Watcher of {} stopped", csv);
+		}
+	}
+
+	/**
+	 * Bring the library up to date with the file: add the books of the lines
+	 * appended and remove the books deleted, or reshelve all the books of the
+	 * file if it was truncated or rewritten. Called by the watching thread on
+	 * each change of the file.
+	 */
+	public synchronized void check() {
+		File csvFile = csv.toFile();
+		// a file being replaced is read once it is there
+		if (stamp == null || !csvFile.exists())
+			return;
+		try {
+			FileStamp current = FileStamp.of(csvFile);
+			Set<Long> deleted = dataFile.getDeletedIds();
+			boolean rewritten = !Objects.equals(fileKey(), fileKey) || current.getLength() < offset
+					|| current.getLength() == stamp.getLength() && !current.equals(stamp);
+			List<Book> appended = new ArrayList<>();
+			if (!rewritten && current.getLength() > stamp.getLength()) {
+				try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+					rewritten = !Arrays.equals(readTail(channel, offset), tail);
+					if (!rewritten) {
+						// other programs often append lines without identifier:
+						// given now in place, so that no reading rewrites the
+						// whole file for them later
+						long end = dataFile.giveTailIds(offset);
+						appended = readLines(channel, offset, end, deleted);
+					}
+				}
+			}
+			if (rewritten) {
+				reload();
+				return;
+			}
+			stamp = current;
+			Set<Long> newlyDeleted = new HashSet<>(deleted);
+			newlyDeleted.removeAll(deletedIds);
+			deletedIds = deleted;
+			if (appended.isEmpty() && newlyDeleted.isEmpty())
+				return;
+			LOGGER.info("{} books appended, {} deleted", appended.size(), newlyDeleted.size());
+			List<Book> books = appended;
+			executor.execute(() -> {
+				Library live = library.get();
+				for (long id : newlyDeleted) {
+					Book book = live.getBook(id);
+					if (book != null)
+						live.removeBook(book);
+				}
+				for (Book book : books)
+					live.addBook(book);
+			});
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Read the whole file and put its books on the shelves of the library
+	 */
+	private void reload() throws IOException {
+		dataFile.assignMissingIds();
+		deletedIds = dataFile.getDeletedIds();
+		fileKey = fileKey();
+		stamp = FileStamp.of(csv.toFile());
+		try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+			offset = DataFile.lastLineEnd(channel, channel.size());
+			tail = readTail(channel, offset);
+		}
+		List<Book> books = new ArrayList<>();
+		// read one record at a time, up to the offset, and not as one string
+		try (Stream<Book> stream = dataFile.stream(deletedIds, offset)) {
+			stream.forEach(books::add);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		LOGGER.info("Reloading the {} books of {}", books.size(), csv);
+		executor.execute(() -> {
+			Library live = library.get();
+			live.setShelves(Library.createLibrary(books, live.getNbBooksPerShelf()));
+		});
+	}
+
+	/**
+	 * Parse the lines from the offset (the header if it is 0) to the last
+	 * line break before end, one line at a time, and move the offset after
+	 * them
+	 *
+	 * @return the books of the lines, without the deleted ones
+	 */
+	private List<Book> readLines(FileChannel channel, long from, long end, Set<Long> deleted) throws IOException {
+		long lineEnd = DataFile.lastLineEnd(channel, end);
+		List<Book> books = new ArrayList<>();
+		if (lineEnd <= from)
+			return books;
+		// not closed, which would close the channel
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				ByteStreams.limit(Channels.newInputStream(channel.position(from)), lineEnd - from), DataFile.CHARSET));
+		if (from == 0)
+			reader.readLine();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty())
+				continue;
+			List<String> values = DataFile.parseLine(line);
+			if (!deleted.contains(DataFile.idOf(values)))
+				books.add(dataFile.parseBook(values));
+		}
+		offset = lineEnd;
+		tail = readTail(channel, offset);
+		return books;
+	}
+
+	/**
+	 * @return the TAIL_SIZE bytes (or less) before the offset
+	 */
+	private static byte[] readTail(FileChannel channel, long offset) throws IOException {
+		int length = (int) Math.min(TAIL_SIZE, offset);
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining() && channel.read(buffer, offset - length + buffer.position()) > 0) {
+			// reads the whole tail
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	/**
+	 * @return the key of the file (its inode on Unix), null if the system has
+	 *         none
+	 */
+	private Object fileKey() throws IOException {
+		return Files.readAttributes(csv, BasicFileAttributes.class).fileKey();
+	}
+
+}
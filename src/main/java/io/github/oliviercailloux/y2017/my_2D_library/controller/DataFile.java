@@ -1,175 +1,1246 @@
 package io.github.oliviercailloux.y2017.my_2D_library.controller;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.supercsv.io.CsvListReader;
+import org.supercsv.io.CsvListWriter;
+import org.supercsv.prefs.CsvPreference;
+
+import com.google.common.io.ByteStreams;
 
 import io.github.oliviercailloux.y2017.my_2D_library.model.Author;
+import io.github.oliviercailloux.y2017.my_2D_library.model.AuthorPool;
 import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+import io.github.oliviercailloux.y2017.my_2D_library.model.BookTable;
 
+/**
+ * DataFile reads and writes the books of a csv file. The file is only
+ * appended to: a deleted book stays in the file, and its identifier is
+ * appended to a side file of tombstones (the path of the csv file followed by
+ * ".deleted") that every reading applies. Once the tombstones pass a ratio of
+ * the records, the file is compacted in the background: it is rewritten
+ * without the deleted books, and the tombstones are dropped. The greatest
+ * identifier given is first written in another side file (the path of the
+ * csv file followed by ".lastid"), so that the identifiers of the books
+ * removed are never given again.
+ *
+ * A file is rewritten in a temporary file which then atomically replaces it,
+ * so that a reading never sees a file half written. Within this program, the
+ * data files of the same csv file share a StampedLock: the writings take its
+ * write lock, while the readings run optimistically, and only read again
+ * under the read lock if a writing happened meanwhile. A rewrite also locks
+ * the byte of the csv file at LOCK_POSITION (after its end), which the other
+ * programs appending to the file should lock as well; the lines they append
+ * during the rewrite without taking this lock are copied at the end of the
+ * new file.
+ */
 public class DataFile {
 
 	public static final Logger LOGGER = LoggerFactory.getLogger(DataFile.class);
 
+	/**
+	 * The suffix of the file of the identifiers of the deleted books
+	 */
+	public static final String TOMBSTONES_SUFFIX = ".deleted";
+
+	/**
+	 * The suffix of the file of the greatest identifier given, written when
+	 * records are removed from the csv file
+	 */
+	public static final String LAST_ID_SUFFIX = ".lastid";
+
+	/**
+	 * The ratio of deleted records above which the file is compacted
+	 */
+	public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+	/**
+	 * The lock of each csv file, by absolute path
+	 */
+	private static final ConcurrentMap<Path, StampedLock> LOCKS = new ConcurrentHashMap<>();
+
+	/**
+	 * The position of the byte of the csv file locked by its rewrites: after
+	 * the end of any file, so that locking it keeps no program from reading
+	 * the records
+	 */
+	static final long LOCK_POSITION = Long.MAX_VALUE - 1;
+
+	/**
+	 * The thread compacting the files, shared by all of them
+	 */
+	private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "DataFile compactor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The encoding of the csv file
+	 */
+	public static final Charset CHARSET = StandardCharsets.UTF_8;
+
+	/**
+	 * The format of the csv file: comma separated, quoted with double quotes,
+	 * lines ending with CRLF
+	 */
+	private static final CsvPreference PREFERENCE = CsvPreference.STANDARD_PREFERENCE;
+
 	private String booksFilePath;
+
+	/**
+	 * The authors of the books read since the last full reading, shared by
+	 * all of them
+	 */
+	private final AuthorPool authorPool = new AuthorPool();
+
+	/**
+	 * The column of the identifier of the book, after "End"
+	 */
+	private static final int ID_COLUMN = 8;
+
+	/**
+	 * The greatest identifier of the file or given, -1 until the file is
+	 * checked
+	 */
+	private long maxId = -1;
+	/**
+	 * The stamp of the file when its identifiers were last checked, null if
+	 * they were not
+	 */
+	private FileStamp checked;
+
+	/**
+	 * The identifiers of the records of the file, deleted or not, as of the
+	 * last check
+	 */
+	private final Set<Long> recordIds = new HashSet<>();
+
+	/**
+	 * The identifiers of the tombstones file, and its stamp when it was read
+	 */
+	private final Set<Long> deletedIds = new HashSet<>();
+	private FileStamp tombstonesRead;
+
+	/**
+	 * The place of each record in the file, by identifier
+	 */
+	private CatalogOffsetIndex offsetIndex;
+
+	private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+	/**
+	 * The last compaction given to the compactor, null if none
+	 */
+	private Future<?> compaction;
+
+	/**
+	 * True if lines were appended by another program during the last
+	 * rewrite: copied as they are, they may have no identifier yet
+	 */
+	private boolean appendedWhileRewritten;
+
+	/**
+	 * The lock of the file, shared with the other data files of the file
+	 */
+	private final StampedLock fileLock;
 	
 	public DataFile(){
-		String path = new File("").getAbsolutePath();
-		booksFilePath = path + "/src/main/resources/controller/Books.csv";
+		this(new File("").getAbsolutePath() + "/src/main/resources/controller/Books.csv");
+	}
+
+	/***
+	 * Constructor of a data file with the path of another csv file
+	 * @param booksFilePath
+	 */
+	public DataFile(String booksFilePath){
+		this.booksFilePath = booksFilePath;
+		this.fileLock = LOCKS.computeIfAbsent(Paths.get(booksFilePath).toAbsolutePath().normalize(),
+				path -> new StampedLock());
 	}
 	
 	public String getBooksFilePath() {
 		return booksFilePath;
 	}
 
+	/**
+	 * Getter of the pool of the authors of the books read. The books of the
+	 * same author share one Author, which must not be modified. The pool is
+	 * cleared by each reading of the whole file, so that it does not keep
+	 * the authors of the books gone.
+	 * @return the pool of authors
+	 */
+	public AuthorPool getAuthorPool() {
+		return authorPool;
+	}
+
+	/**
+	 * Setter of the ratio of deleted records (from 0 to 1) above which the
+	 * file is compacted in the background
+	 * @param compactionThreshold
+	 */
+	public void setCompactionThreshold(double compactionThreshold) {
+		if (compactionThreshold < 0 || compactionThreshold > 1)
+			throw new IllegalArgumentException("Compaction threshold: " + compactionThreshold);
+		this.compactionThreshold = compactionThreshold;
+	}
+
 	/***
 	 * 
 	 * @return the list of books include in the csv file
 	 */
 	public List<Book> read() {
+		return readOptimistically(liste -> liste::add, ArrayList::new);
+	}
 
-		File booksFile = new File(booksFilePath);
-		
-		List<Book> liste = new ArrayList<>();
+	/***
+	 * Read the csv file as frozen books (see Book.freeze), to be used as
+	 * values, for instance as keys of a cache. The books of the view must be
+	 * read with read() since the view resizes them.
+	 * @return the list of frozen books include in the csv file
+	 */
+	public List<Book> readValues() {
+		return readOptimistically(liste -> {
+			Book.Builder builder = new Book.Builder();
+			return book -> liste.add(builder.id(book.getId()).title(book.getTitle()).author(book.getAuthor())
+					.year(book.getYear()).width(book.getWidth()).height(book.getHeight()).color(book.getColor())
+					.build());
+		}, ArrayList::new);
+	}
+
+	/***
+	 * Read the csv file into a table of books, which takes far less memory
+	 * than a list of books for a large catalog.
+	 * @return the table of the books include in the csv file
+	 */
+	public BookTable readTable() {
+		return readOptimistically(table -> table::add, BookTable::new);
+	}
+
+	/**
+	 * Read all the books into a new result, without locking the file, then
+	 * again under the read lock if the file was written meanwhile
+	 * @param adder gives the action adding a book to the result
+	 * @param factory creates an empty result
+	 * @return the result with the books of the file
+	 */
+	private <T> T readOptimistically(Function<T, Consumer<Book>> adder, Supplier<T> factory) {
+		// before any lock: this may write the file
+		assignMissingIds();
+		Set<Long> deleted = getDeletedIds();
+		authorPool.clear();
+		return readOptimistically(() -> {
+			T result = factory.get();
+			readEach(deleted, authorPool, adder.apply(result));
+			return result;
+		});
+	}
+
+	/**
+	 * Run a reading of the file without locking it, then again under the read
+	 * lock if the file was written meanwhile. The reading must neither write
+	 * the file nor wait for the monitor of a data file. An exception of the
+	 * reading without lock is only thrown if the file was not written
+	 * meanwhile: a record read while written over may not even be parsed.
+	 * @param reading
+	 * @return the result of the reading
+	 */
+	<T> T readOptimistically(Supplier<T> reading) {
+		long stamp = fileLock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				T result = reading.get();
+				if (fileLock.validate(stamp))
+					return result;
+			} catch (RuntimeException e) {
+				if (fileLock.validate(stamp))
+					throw e;
+			}
+			LOGGER.debug("Written while read, reading again: {}", booksFilePath);
+		}
+		stamp = fileLock.readLock();
+		try {
+			return reading.get();
+		} finally {
+			fileLock.unlockRead(stamp);
+		}
+	}
 
-		// this gives you a 2-dimensional array of strings
-		List<List<String>> lines = new ArrayList<>();
-		Scanner inputStream;
+	/***
+	 * Give each book of the csv file to the action as soon as its line is
+	 * read, so that the books do not have to be all in memory at once. The
+	 * authors are not pooled either: each book has its own.
+	 * @param action
+	 */
+	public void readEach(Consumer<Book> action) {
+		assignMissingIds();
+		readEach(getDeletedIds(), null, action);
+	}
 
+	/**
+	 * @param authors the pool of the authors of the books, null for none
+	 */
+	private void readEach(Set<Long> deleted, AuthorPool authors, Consumer<Book> action) {
+		Stream<Book> books;
 		try {
-			inputStream = new Scanner(booksFile);
+			books = stream(deleted, Long.MAX_VALUE, authors);
+		} catch (UncheckedIOException e) {
+			LOGGER.error(e.getMessage());
+			return;
+		}
+		try (Stream<Book> opened = books) {
+			opened.forEach(action);
+		}
+	}
+
+	/**
+	 * Return the books of the csv file as a stream, which reads the file one
+	 * record at a time (with the quoting of csv, so that a title may contain
+	 * a comma). The stream must be closed to close the file. The stream reads
+	 * the file as it was when opened, without the books appended since.
+	 * @return the stream of the books of the file, in the order of the file
+	 * @throws UncheckedIOException if the file cannot be read
+	 */
+	public Stream<Book> stream() {
+		assignMissingIds();
+		authorPool.clear();
+		// taken before opening the file: a compaction may only remove books
+		// of these tombstones
+		return stream(getDeletedIds(), Long.MAX_VALUE);
+	}
 
-			while (inputStream.hasNextLine()) {
-				String line = inputStream.nextLine();
-				// inputStream.useDelimiter(",");
-				String[] values = line.split(",");
-				// this adds the currently parsed line to the 2-dimensional
-				// string array
-				if (!line.isEmpty()) {
-					lines.add(Arrays.asList(values));
+	/**
+	 * Return the books of the csv file up to an offset as a stream (see
+	 * stream())
+	 * @param deleted the identifiers of the books to skip
+	 * @param end the offset where to stop reading, just after a line break
+	 */
+	Stream<Book> stream(Set<Long> deleted, long end) {
+		return stream(deleted, end, authorPool);
+	}
+
+	/**
+	 * @param authors the pool of the authors of the books, null for none
+	 */
+	private Stream<Book> stream(Set<Long> deleted, long end, AuthorPool authors) {
+		CsvListReader reader = openReader(end);
+		// the names are read in this author, then the book is given the
+		// pooled author with these names, or a copy of it
+		Author names = new Author("", "");
+		Spliterator<Book> books = new Spliterators.AbstractSpliterator<Book>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super Book> action) {
+				List<String> values;
+				try {
+					do {
+						values = reader.read();
+					} while (values != null && deleted.contains(idOf(values)));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
+				if (values == null)
+					return false;
+				action.accept(toBook(values, names, authors));
+				return true;
 			}
+		};
+		return StreamSupport.stream(books, false).onClose(() -> close(reader));
+	}
+
+	/**
+	 * Open the file while it is not being written
+	 * @return a reader of the records of the file, after the header
+	 */
+	private CsvListReader openReader() {
+		return openReader(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Open the file while it is not being written
+	 * @param end the offset where to stop reading
+	 * @return a reader of the records of the file, after the header
+	 */
+	private CsvListReader openReader(long end) {
+		long stamp = fileLock.tryOptimisticRead();
+		if (stamp != 0) {
+			CsvListReader reader = openReaderAsIs(end);
+			if (fileLock.validate(stamp))
+				return reader;
+			close(reader);
+		}
+		stamp = fileLock.readLock();
+		try {
+			return openReaderAsIs(end);
+		} finally {
+			fileLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @param end the offset where to stop reading
+	 * @return a reader of the records of the file, after the header, up to
+	 *         the current length of the file or to end if before
+	 */
+	private CsvListReader openReaderAsIs(long end) {
+		CsvListReader reader = null;
+		try {
+			Path path = Paths.get(booksFilePath);
+			long length = Math.min(Files.size(path), end);
+			InputStream in = ByteStreams.limit(Files.newInputStream(path), length);
+			reader = new CsvListReader(new BufferedReader(new InputStreamReader(in, CHARSET)), PREFERENCE);
+			reader.getHeader(true);
+			return reader;
+		} catch (IOException e) {
+			if (reader != null)
+				close(reader);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+	}
 
-			inputStream.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+	/**
+	 * @param values
+	 *            the values of a record
+	 * @param names
+	 *            the author to read the names in
+	 * @param authors
+	 *            the pool of the authors, null to give the book a frozen copy
+	 *            of names
+	 * @return the book of the record
+	 */
+	private Book toBook(List<String> values, Author names, AuthorPool authors) {
+		Book book = new Book();
+		names.setLastName("");
+		names.setFirstName("");
+		book.setAuthor(names);
+		setBookAttributes(book, values);
+		book.setAuthor(authors == null ? new Author(names.getLastName(), names.getFirstName()).freeze()
+				: authors.intern(names));
+		return book;
+	}
+
+	/**
+	 * @param values
+	 *            the values of a record
+	 * @return the book of the record, with the authors of this data file
+	 */
+	synchronized Book parseBook(List<String> values) {
+		return toBook(values, new Author("", ""), authorPool);
+	}
+
+	/**
+	 * Give an identifier to each record of the file that has none, after the
+	 * greatest identifier of the file or ever given (see getLastId), and write
+	 * them in the file. Nothing is done if the file has not changed since it
+	 * was last checked.
+	 */
+	synchronized void assignMissingIds() {
+		File booksFile = new File(booksFilePath);
+		if (!booksFile.exists()
+				|| checked != null && checked.isOf(booksFile))
+			return;
+		// the identifiers given but not yet written (see BatchedBookWriter),
+		// and the ones of the books removed, must not be given again
+		long max = Math.max(Math.max(maxId, 0), getLastId());
+		boolean missing = false;
+		recordIds.clear();
+		try (CsvListReader reader = openReader()) {
+			List<String> values;
+			while ((values = reader.read()) != null) {
+				long id = idOf(values);
+				if (id == 0)
+					missing = true;
+				else
+					recordIds.add(id);
+				max = Math.max(max, id);
+			}
+		} catch (IOException | UncheckedIOException e) {
+			LOGGER.error(e.getMessage());
+			return;
 		}
+		appendedWhileRewritten = false;
+		if (missing) {
+			long stamp = fileLock.writeLock();
+			try {
+				max = giveIds(max);
+			} finally {
+				fileLock.unlockWrite(stamp);
+			}
+		}
+		maxId = max;
+		// the lines appended during the rewrite are checked by the next call
+		checked = appendedWhileRewritten ? null : FileStamp.of(booksFile);
+	}
 
-		// the following code lets you iterate through the 2-dimensional array
-		int lineNo = 0;
-		for (List<String> line : lines) {
+	/**
+	 * Give an identifier to each record that has none and write the file,
+	 * under the write lock
+	 * @param max the greatest identifier given
+	 * @return the greatest identifier given
+	 */
+	private long giveIds(long max) {
+		long[] given = { max };
+		boolean written = rewrite(records -> {
+			if (records.isEmpty())
+				return null;
+			List<String> header = records.get(0);
+			while (header.size() < ID_COLUMN)
+				header.add(null);
+			if (header.size() == ID_COLUMN)
+				header.add("Id");
+			// read again under the file lock: lines may have been appended
+			// since the file was checked
+			for (List<String> values : records.subList(1, records.size())) {
+				long id = idOf(values);
+				if (id != 0) {
+					recordIds.add(id);
+					given[0] = Math.max(given[0], id);
+				}
+			}
+			long first = given[0];
+			for (List<String> values : records.subList(1, records.size())) {
+				if (idOf(values) == 0) {
+					while (values.size() < ID_COLUMN)
+						values.add(null);
+					if (values.size() > ID_COLUMN)
+						values.set(ID_COLUMN, String.valueOf(++given[0]));
+					else
+						values.add(String.valueOf(++given[0]));
+					recordIds.add(given[0]);
+				}
+			}
+			// the missing identifiers may only be in a last line not ended yet
+			return given[0] > first ? records : null;
+		});
+		if (written)
+			LOGGER.info("Identifiers given to the books up to " + given[0]);
+		return given[0];
+	}
 
-			int columnNo = 0;
-			if (lineNo == 0) {
-				lineNo++;
-				continue;
+	/**
+	 * Getter of the greatest identifier given when records were last removed
+	 * from the file
+	 * @return the identifier of the last id file, 0 if there is none
+	 */
+	private long getLastId() {
+		Path lastId = Paths.get(booksFilePath + LAST_ID_SUFFIX);
+		if (!Files.exists(lastId))
+			return 0;
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(lastId), CHARSET).trim());
+		} catch (IOException | NumberFormatException e) {
+			LOGGER.error(e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * Getter of the identifiers of the deleted books, read again from the
+	 * tombstones file if it has changed
+	 * @return a copy of the identifiers of the deleted books
+	 */
+	synchronized Set<Long> getDeletedIds() {
+		File tombstones = new File(booksFilePath + TOMBSTONES_SUFFIX);
+		if (tombstonesRead == null || !tombstonesRead.isOf(tombstones)) {
+			deletedIds.clear();
+			if (tombstones.exists()) {
+				try {
+					// read without the lock: a tombstone being written, without
+					// its line break yet, is left out
+					String content = new String(Files.readAllBytes(tombstones.toPath()), CHARSET);
+					for (String line : content.substring(0, content.lastIndexOf('\n') + 1).split("\r?\n")) {
+						if (!line.trim().isEmpty())
+							deletedIds.add(Long.parseLong(line.trim()));
+					}
+				} catch (IOException | NumberFormatException e) {
+					LOGGER.error(e.getMessage());
+				}
 			}
-			Book book = new Book();
-			Author author = new Author("", "");
-			book.setAuthor(author);
+			tombstonesRead = FileStamp.of(tombstones);
+		}
+		return new HashSet<>(deletedIds);
+	}
+
+	/**
+	 * @param values
+	 *            the values of a record
+	 * @return the identifier of the record, 0 if it has none
+	 */
+	static long idOf(List<String> values) {
+		if (values.size() <= ID_COLUMN || values.get(ID_COLUMN) == null || values.get(ID_COLUMN).trim().isEmpty())
+			return 0;
+		try {
+			return Long.parseLong(values.get(ID_COLUMN).trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
 
-			for (String value : line) {
+	/**
+	 * @return a new identifier, greater than the ones of the file
+	 */
+	private long nextId() {
+		assignMissingIds();
+		maxId = Math.max(maxId, 0);
+		return ++maxId;
+	}
+
+	/**
+	 * Reserve the identifier of a line about to be written
+	 * @param id the identifier of the line, 0 if it has none
+	 * @return the identifier of the line, or a new one if it has none
+	 */
+	synchronized long reserveId(long id) {
+		if (id == 0)
+			return nextId();
+		maxId = Math.max(maxId, id);
+		return id;
+	}
+
+	/**
+	 * Record lines appended to the file by a writer holding the lock of this
+	 * data file
+	 * @param lengthBefore the length of the file before the lines
+	 * @param ids the identifiers of the lines
+	 */
+	synchronized void appended(long lengthBefore, List<Long> ids) {
+		recordIds.addAll(ids);
+		File booksFile = new File(booksFilePath);
+		if (checked != null && lengthBefore == checked.getLength())
+			checked = FileStamp.of(booksFile);
+		try {
+			getOffsetIndex().appended(lengthBefore);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+	}
 
-				if (value == "" || value.isEmpty()) {
-					value = "";
+	/**
+	 * Give an identifier to each line without one, from an offset to the last
+	 * line break, as assignMissingIds does but without rewriting the file: the
+	 * lines are written again in place, longer, and the bytes after them are
+	 * moved. The file thus keeps its key and its bytes before the offset (see
+	 * CatalogWatcher), and a later check finds no identifier missing there.
+	 * The lines must not contain line breaks.
+	 * @param from the offset of the first line, just after a line break (0
+	 *            for the header)
+	 * @return the offset just after the lines
+	 * @throws IOException if the file cannot be read or written
+	 */
+	synchronized long giveTailIds(long from) throws IOException {
+		long max = Math.max(Math.max(maxId, 0), getLastId());
+		List<Long> ids = new ArrayList<>();
+		long stamp = fileLock.writeLock();
+		try (FileChannel channel = FileChannel.open(Paths.get(booksFilePath), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			// released when the channel is closed
+			channel.lock(LOCK_POSITION, 1, false);
+			long lengthBefore = channel.size();
+			long end = lastLineEnd(channel, lengthBefore);
+			if (end <= from)
+				return from;
+			List<String> lines = new ArrayList<>();
+			// not closed, which would close the channel
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					ByteStreams.limit(Channels.newInputStream(channel.position(from)), end - from),
+					CHARSET));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+				if (from > 0 || lines.size() > 1)
+					max = Math.max(max, idOf(parseLine(line)));
+			}
+			StringBuilder written = new StringBuilder();
+			for (int index = 0; index < lines.size(); index++) {
+				line = lines.get(index);
+				if ((from > 0 || index > 0) && !line.isEmpty()) {
+					List<String> values = parseLine(line);
+					if (idOf(values) == 0) {
+						line = toLine(withId(values, ++max));
+						ids.add(max);
+					}
 				}
-				//LOGGER.info("bla : " + value);
-				book.setBookAttribute(columnNo, value);
-				columnNo++;
+				written.append(line).append("\r\n");
+			}
+			maxId = max;
+			if (ids.isEmpty())
+				return end;
+			byte[] bytes = written.toString().getBytes(CHARSET);
+			// the line being written, if any, is moved after the lines
+			ByteBuffer buffer = ByteBuffer.allocate(bytes.length + (int) (lengthBefore - end));
+			buffer.put(bytes);
+			while (buffer.hasRemaining() && channel.read(buffer, end + buffer.position() - bytes.length) > 0) {
+				// reads the whole line
+			}
+			buffer.flip();
+			long position = from;
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+			LOGGER.info("Identifiers given to {} books appended to {}", ids.size(), booksFilePath);
+			recordIds.addAll(ids);
+			return from + bytes.length;
+		} finally {
+			fileLock.unlockWrite(stamp);
+		}
+	}
+
+	private CatalogOffsetIndex getOffsetIndex() {
+		if (offsetIndex == null)
+			offsetIndex = new CatalogOffsetIndex(new File(booksFilePath));
+		return offsetIndex;
+	}
+
+	/**
+	 * Read the record of one book, going straight to its place in the file
+	 * (see CatalogOffsetIndex)
+	 * @param id the identifier of the book
+	 * @return the book, null if it is not in the file or deleted
+	 * @throws UncheckedIOException if the file cannot be read
+	 */
+	public synchronized Book readBook(long id) {
+		assignMissingIds();
+		if (getDeletedIds().contains(id))
+			return null;
+		List<String> values = readOptimistically(() -> {
+			try {
+				return readRecord(id);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		return values == null ? null : parseBook(values);
+	}
+
+	/**
+	 * @return the values of the record of the book, null if the file has none
+	 */
+	private List<String> readRecord(long id) throws IOException {
+		CatalogOffsetIndex.Place place = getOffsetIndex().get(id);
+		if (place == null)
+			return null;
+		ByteBuffer bytes = ByteBuffer.allocate(place.getLength());
+		try (FileChannel channel = FileChannel.open(Paths.get(booksFilePath), StandardOpenOption.READ)) {
+			while (bytes.hasRemaining() && channel.read(bytes, place.getOffset() + bytes.position()) > 0) {
+				// reads until the end of the record
+			}
+		}
+		return parseLine(new String(bytes.array(), 0, bytes.position(), CHARSET));
+	}
 
+	/**
+	 * Replace the record of a book. The new record is written over the former
+	 * one when it is not longer (padded with spaces after the identifier);
+	 * otherwise the file is written again.
+	 * @param id the identifier of the book
+	 * @param line the new line of csv of the book, its identifier is set to id
+	 * @return true if the book was in the file and not deleted
+	 * @throws UncheckedIOException if the file cannot be read or written
+	 */
+	public synchronized boolean updateLine(long id, String line) {
+		assignMissingIds();
+		if (getDeletedIds().contains(id))
+			return false;
+		List<String> values = withId(parseLine(line), id);
+		File booksFile = new File(booksFilePath);
+		long stamp = fileLock.writeLock();
+		try {
+			List<String> oldValues = readRecord(id);
+			if (oldValues == null)
+				return false;
+			CatalogOffsetIndex.Place place = getOffsetIndex().get(id);
+			byte[] bytes = toLine(values).getBytes(CHARSET);
+			if (bytes.length > place.getLength()) {
+				return rewrite(records -> {
+					for (int index = 1; index < records.size(); index++) {
+						if (idOf(records.get(index)) == id)
+							records.set(index, values);
+					}
+					return records;
+				});
+			}
+			boolean wasChecked = checked != null && checked.isOf(booksFile);
+			ByteBuffer record = ByteBuffer.allocate(place.getLength());
+			record.put(bytes);
+			while (record.hasRemaining())
+				record.put((byte) ' ');
+			record.flip();
+			try (FileChannel channel = FileChannel.open(booksFile.toPath(), StandardOpenOption.WRITE)) {
+				while (record.hasRemaining())
+					channel.write(record, place.getOffset() + record.position());
 			}
-			liste.add(book);
-			lineNo++;
+			getOffsetIndex().rewritten(id, oldValues, values);
+			if (wasChecked)
+				checked = FileStamp.of(booksFile);
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			fileLock.unlockWrite(stamp);
+		}
+	}
+
+	/***
+	 * Set the attributes of the book with the values of a line
+	 * @param book
+	 * @param line
+	 */
+	static void setBookAttributes(Book book, List<String> line) {
+		int columnNo = 0;
+		for (String value : line) {
+
+			if (value == null || value.isEmpty()) {
+				value = "";
+			}
+			//LOGGER.info("bla : " + value);
+			book.setBookAttribute(columnNo, value);
+			columnNo++;
+
+		}
+	}
+
+	/**
+	 * Read the records of the file up to an offset, the header first
+	 * @param end the offset just after the last line break to read
+	 * @return the values of each record
+	 */
+	private List<List<String>> readRecords(long end) {
+		List<List<String>> records = new ArrayList<>();
+		InputStream in;
+		try {
+			in = ByteStreams.limit(Files.newInputStream(Paths.get(booksFilePath)), end);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+			return records;
+		}
+		try (CsvListReader reader = new CsvListReader(new BufferedReader(new InputStreamReader(in, CHARSET)),
+				PREFERENCE)) {
+			List<String> values;
+			while ((values = reader.read()) != null)
+				records.add(new ArrayList<>(values));
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+		return records;
+	}
+
+	/**
+	 * @param line
+	 *            a line of csv
+	 * @return the values of the line
+	 */
+	static List<String> parseLine(String line) {
+		try (CsvListReader reader = new CsvListReader(new StringReader(line), PREFERENCE)) {
+			List<String> values = reader.read();
+			return values == null ? new ArrayList<String>() : values;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		return liste;
 	}
 	
+	/**
+	 * @param values
+	 *            the values of a record
+	 * @param id
+	 * @return a copy of the values, with empty values up to the column of the
+	 *         identifier, which is set to id
+	 */
+	static List<String> withId(List<String> values, long id) {
+		List<String> withId = new ArrayList<>(values);
+		while (withId.size() <= ID_COLUMN)
+			withId.add(null);
+		withId.set(ID_COLUMN, String.valueOf(id));
+		return withId;
+	}
+
 	/***
-	 * Add a line to the csv file
+	 * Add a line to the csv file. A new identifier is added to the line if
+	 * it has none, in its column whatever the number of values of the line.
+	 * The line is parsed, then written again as addLine(List) does.
 	 * @param line
+	 * @return the identifier of the book of the line
+	 */
+	public long addLine(String line) {
+		return addLine(parseLine(line));
+	}
+
+	/***
+	 * Add a book to the csv file from its values, which are quoted as needed,
+	 * so that a title with a comma or a quote stays one value. A new
+	 * identifier is added if the values have none.
+	 * @param values the values of the book, in the order of the columns
+	 * @return the identifier of the book
 	 */
-	public void addLine(String line) {
-		try (FileWriter wr = new FileWriter(booksFilePath.trim().toString(), true)) {
-			//FileWriter wr = new FileWriter(booksFilePath.trim().toString(), true);
+	public synchronized long addLine(List<String> values) {
+		assignMissingIds();
+		long given = idOf(values);
+		long id = reserveId(given);
+		String line = toLine(given == 0 ? withId(values, id) : values);
+		File booksFile = new File(booksFilePath.trim());
+		boolean wasChecked = checked != null && checked.isOf(booksFile);
+		long stamp = fileLock.writeLock();
+		long lengthBefore = booksFile.length();
+		try (Writer wr = Files.newBufferedWriter(booksFile.toPath(), CHARSET, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND)) {
 			wr.append(line);
 			wr.append("\r\n");
-			wr.close();
 		} catch (Exception e) {
 			LOGGER.error(e.getMessage());
+			return id;
+		} finally {
+			fileLock.unlockWrite(stamp);
+		}
+		recordIds.add(id);
+		if (wasChecked) {
+			// the file is still checked: no need to read it again
+			checked = FileStamp.of(booksFile);
+		}
+		try {
+			getOffsetIndex().appended(lengthBefore);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+		return id;
+	}
+
+	/**
+	 * Add lines to the csv file at once, in a single write (see
+	 * BatchedBookWriter.addBooks). A new identifier is added to each line
+	 * that has none.
+	 * @param lines
+	 * @return the identifiers of the books of the lines
+	 * @throws UncheckedIOException if the lines cannot be written, in which
+	 *             case none of them is
+	 */
+	public List<Long> addLines(List<String> lines) {
+		try (BatchedBookWriter writer = new BatchedBookWriter(this)) {
+			return writer.addBooks(lines);
 		}
 	}
+
+	/**
+	 * Delete a book by appending its identifier to the tombstones file,
+	 * without rewriting the csv file
+	 * @param id the identifier of the book
+	 * @return true if the book was in the file and not yet deleted
+	 */
+	public synchronized boolean deleteBook(long id) {
+		assignMissingIds();
+		if (!recordIds.contains(id) || getDeletedIds().contains(id))
+			return false;
+		File tombstones = new File(booksFilePath + TOMBSTONES_SUFFIX);
+		boolean read = tombstonesRead != null && tombstonesRead.isOf(tombstones);
+		long stamp = fileLock.writeLock();
+		try {
+			Files.write(tombstones.toPath(), (id + "\r\n").getBytes(CHARSET), StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+			return false;
+		} finally {
+			fileLock.unlockWrite(stamp);
+		}
+		deletedIds.add(id);
+		if (read)
+			tombstonesRead = FileStamp.of(tombstones);
+		if (deletedIds.size() > compactionThreshold * recordIds.size() && (compaction == null || compaction.isDone()))
+			compaction = COMPACTOR.submit(this::compact);
+		return true;
+	}
 	
 	/**
-	 * Delete he line in the csv file
+	 * Delete he line in the csv file: the books with the same names of the
+	 * author, title and year, found with the index of the records
 	 * @param lineToDelete
 	 */
-	public void deleteLine(String lineToDelete) {
-
-		File file = new File(booksFilePath);
+	public synchronized void deleteLine(String lineToDelete) {
+		assignMissingIds();
+		try {
+			for (long id : getOffsetIndex().idsOf(Arrays.asList(lineToDelete.split(",")))) {
+				LOGGER.debug("Deleting " + id);
+				deleteBook(id);
+			}
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+	}
 
-		List<List<String>> lines = new ArrayList<>();
-		Scanner inputStream;
+	/**
+	 * Rewrite the csv file without the deleted books, then remove their
+	 * tombstones. A reading begun before goes on with the former file.
+	 */
+	public synchronized void compact() {
+		assignMissingIds();
+		Set<Long> deleted;
+		int[] removed = { 0 };
+		appendedWhileRewritten = false;
+		long stamp = fileLock.writeLock();
+		try {
+			// read under the lock, so that no data file of the same csv file
+			// deletes a book between this reading and the rewrite
+			deleted = getDeletedIds();
+			if (deleted.isEmpty())
+				return;
+			// written first: if the program stops before the end, the
+			// identifiers removed are still known
+			try {
+				writeReplacing(Paths.get(booksFilePath + LAST_ID_SUFFIX), maxId + "\r\n");
+			} catch (IOException e) {
+				LOGGER.error(e.getMessage());
+				return;
+			}
+			boolean written = rewrite(records -> {
+				if (records.isEmpty())
+					return null;
+				List<List<String>> lines = new ArrayList<>(records.size());
+				lines.add(records.get(0));
+				for (List<String> values : records.subList(1, records.size())) {
+					if (!deleted.contains(idOf(values)))
+						lines.add(values);
+				}
+				removed[0] = records.size() - lines.size();
+				return lines;
+			});
+			if (!written)
+				return;
+			// if the program stops before, the tombstones left only name
+			// identifiers that are not given again (see LAST_ID_SUFFIX)
+			dropTombstones(deleted);
+		} finally {
+			fileLock.unlockWrite(stamp);
+		}
+		LOGGER.info("Compacted " + booksFilePath + ": " + removed[0] + " deleted books removed");
+		recordIds.removeAll(deleted);
+		checked = appendedWhileRewritten ? null : FileStamp.of(new File(booksFilePath));
+	}
 
+	/**
+	 * Remove the tombstones applied by a compaction from the tombstones file,
+	 * keeping the ones appended since by another program. To be called under
+	 * the write lock.
+	 * @param applied the identifiers of the books removed from the csv file
+	 */
+	private void dropTombstones(Set<Long> applied) {
+		Path tombstones = Paths.get(booksFilePath + TOMBSTONES_SUFFIX);
+		Set<Long> remaining = getDeletedIds();
+		remaining.removeAll(applied);
 		try {
-			inputStream = new Scanner(file);
+			if (remaining.isEmpty()) {
+				Files.deleteIfExists(tombstones);
+			} else {
+				StringBuilder content = new StringBuilder();
+				for (long id : remaining)
+					content.append(id).append("\r\n");
+				writeReplacing(tombstones, content.toString());
+			}
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+		}
+	}
 
-			while (inputStream.hasNextLine()) {
-				String line = inputStream.nextLine();
+	/**
+	 * Wait for the end of the compaction given to the compactor, if any
+	 */
+	void awaitCompaction() throws InterruptedException, ExecutionException {
+		Future<?> pending;
+		synchronized (this) {
+			pending = compaction;
+		}
+		if (pending != null)
+			pending.get();
+	}
+	
+	/**
+	 * @param values
+	 * @return the line of csv of the values, without line break
+	 */
+	static String toLine(List<String> values) {
+		StringWriter line = new StringWriter();
+		try (CsvListWriter writer = new CsvListWriter(line, PREFERENCE)) {
+			writer.write(values);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		String written = line.toString();
+		return written.endsWith("\r\n") ? written.substring(0, written.length() - 2) : written;
+	}
 
-				String[] values = line.split(",");
-				String[] las = lineToDelete.split(",");
-				if (values[0].equals(las[0]) && values[1].equals(las[1]) && values[2].equals(las[2])
-						&& values[3].equals(las[3])) {
-					continue;
-				} else {
-					lines.add(Arrays.asList(values));
+	/**
+	 * Rewrite the csv file from its records. The records are read up to the
+	 * last line break, the new lines are written in a new file, then the lines
+	 * appended since by another program are copied as they are at its end,
+	 * and the new file replaces the csv file, so that a reading of the former
+	 * file is not disturbed. The byte at LOCK_POSITION is locked meanwhile, for
+	 * the other programs. To be called under the write lock.
+	 * @param edit gives the lines of the new file, the header first, from the
+	 *            records of the file; or null to leave the file as it is
+	 * @return true if the file was written
+	 */
+	private boolean rewrite(UnaryOperator<List<List<String>>> edit) {
+		Path booksPath = Paths.get(booksFilePath).toAbsolutePath();
+		Path temp = null;
+		try (FileChannel channel = FileChannel.open(booksPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// released when the channel is closed
+			channel.lock(LOCK_POSITION, 1, false);
+			long end = lastLineEnd(channel, channel.size());
+			List<List<String>> lines = edit.apply(readRecords(end));
+			if (lines == null)
+				return false;
+			temp = Files.createTempFile(booksPath.getParent(), booksPath.getFileName().toString(), ".tmp");
+			try (CsvListWriter writer = new CsvListWriter(Files.newBufferedWriter(temp, CHARSET), PREFERENCE)) {
+				for (List<String> line : lines) {
+					LOGGER.debug(line.toString());
+					writer.write(line);
 				}
-				LOGGER.debug(lines.toString());
 			}
+			long appended = copyAppended(channel, end, temp);
+			if (appended > 0) {
+				LOGGER.info("{} bytes appended to {} while rewritten", appended, booksPath);
+				appendedWhileRewritten = true;
+			}
+			replace(temp, booksPath);
+			return true;
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage());
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e1) {
+					LOGGER.error(e1.getMessage());
+				}
+			}
+			return false;
+		}
+	}
 
-			inputStream.close();
+	/**
+	 * Copy the bytes of the file from an offset to its end at the end of
+	 * another file, until the file no longer grows
+	 * @param channel the file
+	 * @param from the offset of the first byte to copy
+	 * @param target the file to copy to
+	 * @return the number of bytes copied
+	 */
+	private static long copyAppended(FileChannel channel, long from, Path target) throws IOException {
+		long position = from;
+		try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			long size;
+			while ((size = channel.size()) > position)
+				position += channel.transferTo(position, size - position, out);
+		}
+		return position - from;
+	}
 
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+	/**
+	 * @return the offset just after the last line break before end, 0 if none
+	 */
+	static long lastLineEnd(FileChannel channel, long end) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long position = end;
+		while (position > 0) {
+			int length = (int) Math.min(buffer.capacity(), position);
+			buffer.clear();
+			buffer.limit(length);
+			position -= length;
+			while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+				// reads the whole block
+			}
+			for (int index = buffer.position() - 1; index >= 0; index--) {
+				if (buffer.get(index) == '\n')
+					return position + index + 1;
+			}
 		}
-		addNotDeletedLines(lines);
+		return 0;
 	}
-	
+
 	/**
-	 * Add all the lines in the csv file (these are the books that were not deleted)
-	 * @param lines
+	 * Write a small file in a temporary file which then replaces it
+	 * @param target
+	 * @param content
+	 * @throws IOException
 	 */
-	private void addNotDeletedLines(List<List<String>> lines) {
-		FileWriter fw;
+	private static void writeReplacing(Path target, String content) throws IOException {
+		Path path = target.toAbsolutePath();
+		Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
 		try {
-			fw = new FileWriter(booksFilePath, false);
-
-			for (List<String> line : lines) {
-				String li = "";
-				for (String value : line) {
-					if (li != null && !li.trim().isEmpty()) {
-						li = li + "," + value;
-					} else {
-						li = value;
-					}
-				}
-				LOGGER.debug(li);
-				fw.write(li);
-				fw.write("\r\n");
+			Files.write(temp, content.getBytes(CHARSET));
+			replace(temp, path);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
 
-			}
-			fw.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Move a file over another one atomically, so that the other one is seen
+	 * either whole as it was or whole as the moved one; if the file system
+	 * cannot, simply move it over
+	 * @param source
+	 * @param target
+	 * @throws IOException
+	 */
+	static void replace(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			LOGGER.debug("No atomic move to {}", target);
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
 		}
 	}
 
+	/**
+	 * @return the lock of the file, shared with the other data files of the
+	 *         file
+	 */
+	StampedLock getFileLock() {
+		return fileLock;
+	}
+
 }
\ No newline at end of file
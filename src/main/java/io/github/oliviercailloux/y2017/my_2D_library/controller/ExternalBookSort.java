@@ -0,0 +1,238 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Author;
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+import io.github.oliviercailloux.y2017.my_2D_library.model.Shelf;
+import io.github.oliviercailloux.y2017.my_2D_library.model.ShelfAssembler;
+
+/**
+ * ExternalBookSort sorts the books of a csv file that may not fit in memory.
+ * The books are read by runs of at most maxBooksInMemory books; each run is
+ * sorted and written in a temporary file, then the runs are merged, keeping
+ * one book per run in memory. The sort is stable: equal books keep the order
+ * of the file. The authors are not pooled, each book has its own, so that
+ * only the books in memory keep authors.
+ */
+public class ExternalBookSort {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(ExternalBookSort.class);
+
+	private final Comparator<Book> comparator;
+	private final int maxBooksInMemory;
+
+	/**
+	 * @param comparator
+	 *            the order of the books
+	 * @param maxBooksInMemory
+	 *            the number of books of a run
+	 */
+	public ExternalBookSort(Comparator<Book> comparator, int maxBooksInMemory) {
+		if (maxBooksInMemory <= 0)
+			throw new IllegalArgumentException("Books in memory: " + maxBooksInMemory);
+		this.comparator = comparator;
+		this.maxBooksInMemory = maxBooksInMemory;
+	}
+
+	/**
+	 * Give the books of the data file to the action, sorted.
+	 *
+	 * @param dataFile
+	 * @param action
+	 * @throws UncheckedIOException
+	 *             if a temporary file cannot be written or read
+	 */
+	public void sort(DataFile dataFile, Consumer<Book> action) {
+		List<Path> runs = new ArrayList<>();
+		try {
+			List<Book> run = new ArrayList<>();
+			dataFile.readEach(book -> {
+				run.add(book);
+				if (run.size() == maxBooksInMemory) {
+					runs.add(writeRun(run));
+					run.clear();
+				}
+			});
+			if (runs.isEmpty()) {
+				// everything fits in memory, no need of a temporary file
+				run.sort(comparator);
+				run.forEach(action);
+				return;
+			}
+			if (!run.isEmpty()) {
+				runs.add(writeRun(run));
+				run.clear();
+			}
+			LOGGER.debug("Merging {} runs", runs.size());
+			merge(runs, action);
+		} finally {
+			for (Path path : runs) {
+				try {
+					Files.deleteIfExists(path);
+				} catch (IOException e) {
+					LOGGER.error(e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Put the books of the data file, sorted, on shelves of nbBooksPerShelf
+	 * books, as Library.createLibrary does.
+	 *
+	 * @param dataFile
+	 * @param nbBooksPerShelf
+	 * @param shelves
+	 *            receives each shelf in order
+	 */
+	public void sortIntoShelves(DataFile dataFile, int nbBooksPerShelf, Consumer<Shelf> shelves) {
+		ShelfAssembler assembler = new ShelfAssembler(nbBooksPerShelf, shelves);
+		sort(dataFile, assembler);
+		assembler.finish();
+	}
+
+	/**
+	 * Sort the run and write it in a new temporary file.
+	 */
+	private Path writeRun(List<Book> run) {
+		run.sort(comparator);
+		try {
+			Path path = Files.createTempFile("books", ".run");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+				for (Book book : run)
+					write(out, book);
+			}
+			return path;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Merge the sorted runs, taking each time the smallest head of the runs;
+	 * between equal heads, the one of the first run.
+	 */
+	private void merge(List<Path> runs, Consumer<Book> action) {
+		List<RunReader> readers = new ArrayList<>();
+		try {
+			PriorityQueue<RunReader> heads = new PriorityQueue<>(runs.size(),
+					Comparator.comparing((RunReader reader) -> reader.head, comparator)
+							.thenComparingInt(reader -> reader.number));
+			for (Path path : runs) {
+				RunReader reader = new RunReader(path, readers.size());
+				readers.add(reader);
+				if (reader.next())
+					heads.add(reader);
+			}
+			while (!heads.isEmpty()) {
+				RunReader reader = heads.poll();
+				action.accept(reader.head);
+				if (reader.next())
+					heads.add(reader);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			for (RunReader reader : readers) {
+				try {
+					reader.in.close();
+				} catch (IOException e) {
+					LOGGER.error(e.getMessage());
+				}
+			}
+		}
+	}
+
+	private static void write(DataOutputStream out, Book book) throws IOException {
+		Author author = book.getAuthor();
+		writeString(out, author == null ? null : author.getLastName());
+		writeString(out, author == null ? null : author.getFirstName());
+		writeString(out, book.getTitle());
+		out.writeInt(book.getYear());
+		out.writeInt(book.getWidth());
+		out.writeInt(book.getHeight());
+		Color color = book.getColor();
+		out.writeBoolean(color != null);
+		if (color != null)
+			out.writeInt(color.getRGB());
+		out.writeLong(book.getId());
+	}
+
+	private static Book read(DataInputStream in) throws IOException {
+		Book book = new Book();
+		String lastName = readString(in);
+		String firstName = readString(in);
+		if (lastName != null || firstName != null)
+			book.setAuthor(new Author(lastName, firstName).freeze());
+		book.setTitle(readString(in));
+		book.setYear(in.readInt());
+		book.setWidth(in.readInt());
+		book.setHeight(in.readInt());
+		if (in.readBoolean())
+			book.setColor(new Color(in.readInt(), true));
+		book.setId(in.readLong());
+		return book;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * A sorted run being read, with its next book
+	 */
+	private static class RunReader {
+
+		private final DataInputStream in;
+		/**
+		 * The position of the run, to keep the merge stable
+		 */
+		private final int number;
+		private Book head;
+
+		RunReader(Path path, int number) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+			this.number = number;
+		}
+
+		/**
+		 * Read the next book of the run in head.
+		 *
+		 * @return false at the end of the run
+		 */
+		boolean next() throws IOException {
+			try {
+				head = read(in);
+				return true;
+			} catch (EOFException e) {
+				head = null;
+				return false;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import java.io.File;
+
+/**
+ * FileStamp is the length and the date of last modification of a file when it
+ * was read, to know cheaply whether the file has changed since. A missing file
+ * has the length and the date 0.
+ */
+final class FileStamp {
+
+	private final long length;
+	private final long lastModified;
+
+	private FileStamp(long length, long lastModified) {
+		this.length = length;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @param file
+	 * @return the current stamp of the file
+	 */
+	static FileStamp of(File file) {
+		return new FileStamp(file.length(), file.lastModified());
+	}
+
+	/**
+	 * @param length
+	 * @param lastModified
+	 * @return the stamp of a file of this length and date
+	 */
+	static FileStamp of(long length, long lastModified) {
+		return new FileStamp(length, lastModified);
+	}
+
+	/**
+	 * @param file
+	 * @return true if the file has still this length and date
+	 */
+	boolean isOf(File file) {
+		return file.length() == length && file.lastModified() == lastModified;
+	}
+
+	long getLength() {
+		return length;
+	}
+
+	long getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FileStamp))
+			return false;
+		FileStamp other = (FileStamp) obj;
+		return length == other.length && lastModified == other.lastModified;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(length) * 31 + Long.hashCode(lastModified);
+	}
+
+	@Override
+	public String toString() {
+		return "FileStamp [length=" + length + ", lastModified=" + lastModified + "]";
+	}
+
+}
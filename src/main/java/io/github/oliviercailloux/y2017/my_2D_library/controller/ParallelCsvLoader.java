@@ -0,0 +1,406 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Author;
+import io.github.oliviercailloux.y2017.my_2D_library.model.AuthorPool;
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+import io.github.oliviercailloux.y2017.my_2D_library.model.LazyBook;
+import io.github.oliviercailloux.y2017.my_2D_library.model.Library;
+
+/**
+ * ParallelCsvLoader reads a large csv file of books on several threads. The
+ * file is mapped in memory and cut into chunks that end at a line break;
+ * the chunks are parsed byte by byte on a fork/join pool, then their books are
+ * put back together in the order of the file. The books deleted in the
+ * tombstones of the data file are left out.
+ *
+ * The values may be quoted, but must not contain line breaks, since a chunk
+ * begins after any line break.
+ */
+public class ParallelCsvLoader {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(ParallelCsvLoader.class);
+
+	/**
+	 * The smallest chunk worth a task of its own
+	 */
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * The biggest chunk, which must fit in one mapped buffer
+	 */
+	private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+	private final DataFile dataFile;
+	private final ForkJoinPool pool;
+	private final long minChunkSize;
+
+	/**
+	 * Loader of the data file on the common fork/join pool
+	 * 
+	 * @param dataFile
+	 */
+	public ParallelCsvLoader(DataFile dataFile) {
+		this(dataFile, ForkJoinPool.commonPool(), MIN_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param dataFile
+	 * @param pool
+	 *            the pool parsing the chunks
+	 * @param minChunkSize
+	 *            the smallest number of bytes of a chunk
+	 */
+	ParallelCsvLoader(DataFile dataFile, ForkJoinPool pool, long minChunkSize) {
+		this.dataFile = dataFile;
+		this.pool = pool;
+		this.minChunkSize = minChunkSize;
+	}
+
+	/**
+	 * Read the books of the data file, as DataFile.read does.
+	 * 
+	 * @return the books of the file, in the order of the file
+	 * @throws UncheckedIOException
+	 *             if the file cannot be read
+	 */
+	public List<Book> read() {
+		AuthorPool authors = dataFile.getAuthorPool();
+		authors.clear();
+		List<Book> books = read(null);
+		// the chunks have their own pools, the books share the one of the
+		// data file
+		for (Book book : books)
+			book.setAuthor(authors.intern(book.getAuthor()));
+		return books;
+	}
+
+	/**
+	 * Read the books of the data file as LazyBooks: the parsing only finds
+	 * where the columns are, and each column is decoded when first read. The
+	 * books keep a copy of the bytes of their chunk, so that they are not
+	 * changed by the writes of the file.
+	 * 
+	 * @return the books of the file, in the order of the file
+	 * @throws UncheckedIOException
+	 *             if the file cannot be read
+	 */
+	public List<Book> readLazy() {
+		AuthorPool authors = dataFile.getAuthorPool();
+		authors.clear();
+		return read(authors);
+	}
+
+	/**
+	 * @param lazyAuthors
+	 *            the pool of the LazyBooks, null to decode the books at once
+	 */
+	private List<Book> read(AuthorPool lazyAuthors) {
+		dataFile.assignMissingIds();
+		// taken before opening the file, as DataFile.stream does
+		Set<Long> deleted = dataFile.getDeletedIds();
+		// parsed again if a record is written over meanwhile
+		List<Book> books = dataFile.readOptimistically(() -> parse(lazyAuthors));
+		if (!deleted.isEmpty())
+			books.removeIf(book -> deleted.contains(book.getId()));
+		return books;
+	}
+
+	private List<Book> parse(AuthorPool lazyAuthors) {
+		try (FileChannel channel = FileChannel.open(Paths.get(dataFile.getBooksFilePath()), StandardOpenOption.READ)) {
+			long[] bounds = chunkBounds(channel);
+			LOGGER.debug("Parsing {} chunks", bounds.length - 1);
+			return pool.invoke(new ChunksTask(channel, bounds, 0, bounds.length - 1, lazyAuthors));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Read the books of the data file on shelves.
+	 * 
+	 * @param nbBooksPerShelf
+	 * @return a library of the books of the file, in the order of the file
+	 */
+	public Library readLibrary(int nbBooksPerShelf) {
+		return new Library(read(), nbBooksPerShelf);
+	}
+
+	/**
+	 * Cut the file after the header into chunks ending at line breaks.
+	 * 
+	 * @return the offsets where the chunks begin, then the size of the file
+	 */
+	private long[] chunkBounds(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long start = lineEnd(channel, 0);
+		long chunkSize = Math.max(minChunkSize, (size - start) / (4 * pool.getParallelism()) + 1);
+		chunkSize = Math.min(chunkSize, MAX_CHUNK_SIZE);
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(start);
+		long bound = start;
+		while (bound < size) {
+			long next = bound + chunkSize >= size ? size : lineEnd(channel, bound + chunkSize);
+			if (next - bound > MAX_CHUNK_SIZE)
+				throw new IOException("A line of " + dataFile.getBooksFilePath() + " is too long");
+			bounds.add(next);
+			bound = next;
+		}
+		if (bounds.size() == 1)
+			bounds.add(size);
+		long[] array = new long[bounds.size()];
+		for (int index = 0; index < array.length; index++)
+			array[index] = bounds.get(index);
+		return array;
+	}
+
+	/**
+	 * @return the offset just after the first line break from the position,
+	 *         or the size of the file
+	 */
+	private static long lineEnd(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long offset = position;
+		while (true) {
+			buffer.clear();
+			int read = channel.read(buffer, offset);
+			if (read <= 0)
+				return channel.size();
+			for (int index = 0; index < read; index++) {
+				if (buffer.get(index) == '\n')
+					return offset + index + 1;
+			}
+			offset += read;
+		}
+	}
+
+	/**
+	 * Parse the chunks from first to last (excluded), halving the range
+	 * until one chunk is left
+	 */
+	private static class ChunksTask extends RecursiveTask<List<Book>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient FileChannel channel;
+		private final long[] bounds;
+		private final int first;
+		private final int last;
+		private final transient AuthorPool lazyAuthors;
+
+		ChunksTask(FileChannel channel, long[] bounds, int first, int last, AuthorPool lazyAuthors) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.first = first;
+			this.last = last;
+			this.lazyAuthors = lazyAuthors;
+		}
+
+		@Override
+		protected List<Book> compute() {
+			if (last - first == 1) {
+				try {
+					long start = bounds[first];
+					ByteBuffer chunk;
+					if (lazyAuthors == null) {
+						chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, bounds[last] - start);
+					} else {
+						// the LazyBooks decode their records later: a mapping
+						// would show the records written over in place since
+						// (see DataFile.updateLine), so they keep a copy
+						chunk = ByteBuffer.allocate((int) (bounds[last] - start));
+						while (chunk.hasRemaining() && channel.read(chunk, start + chunk.position()) > 0) {
+							// reads the whole chunk
+						}
+						chunk.flip();
+					}
+					ChunkParser parser = new ChunkParser(chunk);
+					return lazyAuthors == null ? parser.parse() : parser.parseLazy(lazyAuthors);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			int middle = (first + last) >>> 1;
+			ChunksTask left = new ChunksTask(channel, bounds, first, middle, lazyAuthors);
+			left.fork();
+			List<Book> books = new ChunksTask(channel, bounds, middle, last, lazyAuthors).compute();
+			List<Book> leftBooks = left.join();
+			leftBooks.addAll(books);
+			return leftBooks;
+		}
+	}
+
+	/**
+	 * Parse the lines of a chunk, byte by byte, into books
+	 */
+	static class ChunkParser {
+
+		private final ByteBuffer chunk;
+		private final AuthorPool authors = new AuthorPool();
+		/**
+		 * The bytes of the value being read
+		 */
+		private byte[] value = new byte[256];
+
+		ChunkParser(ByteBuffer chunk) {
+			this.chunk = chunk;
+		}
+
+		List<Book> parse() {
+			List<Book> books = new ArrayList<>();
+			List<String> values = new ArrayList<>();
+			Author names = new Author("", "");
+			while (chunk.hasRemaining()) {
+				values.clear();
+				if (!readLine(values))
+					continue;
+				Book book = new Book();
+				names.setLastName("");
+				names.setFirstName("");
+				book.setAuthor(names);
+				DataFile.setBookAttributes(book, values);
+				book.setAuthor(authors.intern(names));
+				books.add(book);
+			}
+			return books;
+		}
+
+		/**
+		 * @param authors
+		 *            the pool of the books
+		 * @return the books of the chunk as LazyBooks
+		 */
+		List<Book> parseLazy(AuthorPool authors) {
+			List<Book> books = new ArrayList<>();
+			while (chunk.hasRemaining()) {
+				int[] bounds = readBounds();
+				if (bounds != null)
+					books.add(new LazyBook(chunk, bounds, authors));
+			}
+			return books;
+		}
+
+		/**
+		 * Find the columns of the next line, without decoding them
+		 * 
+		 * @return the bounds of the columns (see LazyBook), null if the line
+		 *         is empty
+		 */
+		private int[] readBounds() {
+			int[] bounds = new int[2 * 9];
+			int count = 0;
+			while (true) {
+				int start = chunk.position();
+				int end = chunk.limit();
+				boolean quoted = chunk.hasRemaining() && chunk.get(start) == '"';
+				if (quoted) {
+					chunk.get();
+					start++;
+					while (chunk.hasRemaining()) {
+						if (chunk.get() == '"') {
+							if (chunk.hasRemaining() && chunk.get(chunk.position()) == '"') {
+								chunk.get();
+							} else {
+								end = chunk.position() - 1;
+								break;
+							}
+						}
+					}
+				}
+				// up to the separator
+				byte b = 0;
+				while (chunk.hasRemaining()) {
+					b = chunk.get();
+					if (b == ',' || b == '\n')
+						break;
+				}
+				if (!quoted) {
+					end = b == ',' || b == '\n' ? chunk.position() - 1 : chunk.position();
+					if (end > start && chunk.get(end - 1) == '\r')
+						end--;
+				}
+				if (count == 0 && b != ',' && !quoted && end == start)
+					return null;
+				if (2 * count == bounds.length)
+					bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+				bounds[2 * count] = quoted ? ~start : start;
+				bounds[2 * count + 1] = end;
+				count++;
+				if (b != ',')
+					return Arrays.copyOf(bounds, 2 * count);
+			}
+		}
+
+		/**
+		 * Read the values of the next line
+		 * 
+		 * @return false if the line is empty
+		 */
+		private boolean readLine(List<String> values) {
+			boolean empty = true;
+			while (chunk.hasRemaining()) {
+				int length = 0;
+				boolean quoted = false;
+				byte b = 0;
+				boolean endOfLine = true;
+				while (chunk.hasRemaining()) {
+					b = chunk.get();
+					if (quoted) {
+						if (b == '"') {
+							if (chunk.hasRemaining() && chunk.get(chunk.position()) == '"') {
+								chunk.get();
+								length = append(length, b);
+							} else {
+								quoted = false;
+							}
+						} else {
+							length = append(length, b);
+						}
+					} else if (b == '"') {
+						quoted = true;
+						empty = false;
+					} else if (b == ',') {
+						endOfLine = false;
+						empty = false;
+						break;
+					} else if (b == '\n') {
+						break;
+					} else if (b != '\r') {
+						length = append(length, b);
+						empty = false;
+					}
+				}
+				values.add(length == 0 ? "" : new String(value, 0, length, DataFile.CHARSET));
+				if (endOfLine)
+					return !empty;
+			}
+			return !empty;
+		}
+
+		private int append(int length, byte b) {
+			if (length == value.length) {
+				byte[] bigger = new byte[2 * length];
+				System.arraycopy(value, 0, bigger, 0, length);
+				value = bigger;
+			}
+			value[length] = b;
+			return length + 1;
+		}
+	}
+
+}
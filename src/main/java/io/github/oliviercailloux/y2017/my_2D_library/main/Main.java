@@ -6,6 +6,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.github.oliviercailloux.y2017.my_2D_library.controller.CatalogSnapshot;
 import io.github.oliviercailloux.y2017.my_2D_library.controller.DataFile;
 import io.github.oliviercailloux.y2017.my_2D_library.model.Library;
 import io.github.oliviercailloux.y2017.my_2D_library.view.SVGLibrary;
@@ -17,7 +18,10 @@ public class Main {
 
 	public static void main(String[] args) throws IOException, ParserConfigurationException {
 		DataFile dataFile = new DataFile();
-		Library library = new Library(dataFile.read(), 18);
+		// the books of the snapshot are views of its table, resized by the view
+		// like the books of the csv file
+		Library library = new Library(new CatalogSnapshot(dataFile).load().getBooks(), 18);
+		library.setSortIndexed(true);
 		SVGLibrary svgLibrary = new SVGLibrary(library );	
 		new Window2DLibrary("2D_LIBRARY PROJECT", svgLibrary);
 	}
@@ -21,6 +21,26 @@ public class Author {
 	 * The author's last name.
 	 */
 	private String lastName;
+
+	/**
+	 * The sort keys of the names, computed when first needed
+	 */
+	private byte[] firstNameSortKey;
+	private byte[] lastNameSortKey;
+
+	/**
+	 * True once the author can no longer be modified
+	 */
+	private boolean frozen;
+	/**
+	 * The hashcode, computed when the author is frozen
+	 */
+	private int hash;
+
+	/**
+	 * The version stamp, the number of changes of the author
+	 */
+	private long version;
 	
 	/**
 	 * Author's constructor.
@@ -45,7 +65,20 @@ public class Author {
 	 * @param author's first name
 	 */
 	public void setFirstName(String firstName) {
+		checkNotFrozen();
 		this.firstName = firstName;
+		this.firstNameSortKey = null;
+		this.version++;
+	}
+
+	/**
+	 * Getter of the sort key of the first name, computed once
+	 * @return the sort key of the first name (see SortKeys)
+	 */
+	public byte[] getFirstNameSortKey() {
+		if (firstNameSortKey == null)
+			firstNameSortKey = SortKeys.of(firstName);
+		return firstNameSortKey;
 	}
 	
 	/**
@@ -61,14 +94,68 @@ public class Author {
 	 * @param author's last name
 	 */
 	public void setLastName(String lastName) {
+		checkNotFrozen();
 		this.lastName = lastName;
+		this.lastNameSortKey = null;
+		this.version++;
+	}
+
+	/**
+	 * Getter of the sort key of the last name, computed once
+	 * @return the sort key of the last name (see SortKeys)
+	 */
+	public byte[] getLastNameSortKey() {
+		if (lastNameSortKey == null)
+			lastNameSortKey = SortKeys.of(lastName);
+		return lastNameSortKey;
 	}
 	
+	/**
+	 * Getter of the version stamp of the author
+	 * @return a stamp that changes each time the author is modified
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Make the author immutable: its setters then throw an
+	 * UnsupportedOperationException, and its hashcode is computed once.
+	 * @return this author
+	 */
+	public Author freeze() {
+		if (!frozen) {
+			hash = computeHash();
+			frozen = true;
+		}
+		return this;
+	}
+
+	/**
+	 * @return true if the author can no longer be modified
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("The author " + lastName + " " + firstName + " is frozen");
+	}
+
 	/***
 	 * @return the hashcode of the author
 	 */
 	public int hashCode(){
-		return Objects.hash(lastName, firstName);
+		return frozen ? hash : computeHash();
+	}
+
+	/**
+	 * @return the value of Objects.hash(lastName, firstName), without
+	 *         allocating its array
+	 */
+	private int computeHash() {
+		return 31 * (31 + Objects.hashCode(lastName)) + Objects.hashCode(firstName);
 	}
 	
 	/***
@@ -0,0 +1,86 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AuthorPool keeps one instance of each author met while loading books, so
+ * that the books of the same author share one Author and the same two name
+ * strings instead of holding copies of them. Comparing two pooled authors then
+ * usually stops at the identity test of equals. The titles, which are seldom
+ * shared, are not pooled.
+ *
+ * A pool is meant for one load: it holds all the authors met until cleared.
+ *
+ * The authors of the pool are shared by all the books that were given them,
+ * so they are frozen (see Author.freeze).
+ */
+public final class AuthorPool {
+
+	private final Map<Author, Author> authors = new HashMap<>();
+	private final Map<String, String> strings = new HashMap<>();
+	/**
+	 * The author used to look up the pool, so that a hit allocates nothing
+	 */
+	private final Author probe = new Author("", "");
+
+	/**
+	 * Return the pooled author with these names, adding it the first time.
+	 *
+	 * @param lastName
+	 * @param firstName
+	 * @return the author of the pool
+	 */
+	public synchronized Author intern(String lastName, String firstName) {
+		probe.setLastName(lastName);
+		probe.setFirstName(firstName);
+		Author author = authors.get(probe);
+		if (author == null) {
+			author = new Author(internString(lastName), internString(firstName)).freeze();
+			authors.put(author, author);
+		}
+		return author;
+	}
+
+	/**
+	 * Return the pooled author equal to the given one, adding a copy of it the
+	 * first time (the given author may be modified afterwards).
+	 *
+	 * @param author
+	 *            may be null
+	 * @return the author of the pool, or null
+	 */
+	public Author intern(Author author) {
+		if (author == null)
+			return null;
+		return intern(author.getLastName(), author.getFirstName());
+	}
+
+	private String internString(String value) {
+		if (value == null)
+			return null;
+		String pooled = strings.putIfAbsent(value, value);
+		return pooled == null ? value : pooled;
+	}
+
+	/**
+	 * @return the number of distinct authors of the pool
+	 */
+	public synchronized int size() {
+		return authors.size();
+	}
+
+	/**
+	 * Empty the pool. The authors already given keep their value.
+	 */
+	public synchronized void clear() {
+		authors.clear();
+		strings.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "AuthorPool [authors=" + authors.size() + ", strings=" + strings.size() + "]";
+	}
+
+}
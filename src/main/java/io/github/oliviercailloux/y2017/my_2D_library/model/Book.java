@@ -1,7 +1,6 @@
 package io.github.oliviercailloux.y2017.my_2D_library.model;
 
 import java.awt.Color;
-import java.util.Comparator;
 import java.util.Objects;
 import java.util.Random;
 
@@ -16,56 +15,69 @@ public class Book {
 	public static final Logger LOGGER = LoggerFactory.getLogger(Book.class);
 
 	/**
-	 * The title of the book.
+	 * The attributes of the book, null for a view of a book stored elsewhere
+	 * (see TableBook), which reads and writes them itself
 	 */
-	private String title;
+	private final Attributes attributes;
 
 	/**
-	 * The author of the book.
+	 * Book's constructor with the title and the author of the book.
+	 * 
+	 * @param the
+	 *            title of the book
+	 * @param the
+	 *            author of the book
 	 */
-	private Author author;
+	public Book(String title, Author author, int year) {
+		this();
+		attributes.title = title;
+		attributes.author = author;
+		attributes.year = year;
+	}
 
-	/**
-	 * The year of the book
-	 */
-	private int year;
+	public Book() {
+		this.attributes = new Attributes();
+	}
 
 	/**
-	 * The width of the book
-	 */
-	private int width;
-	/**
-	 * The height of the book
+	 * Constructor of a view of a book stored elsewhere: the view overrides
+	 * all the getters and setters, and freeze, and carries no attribute
+	 * 
+	 * @param attributes
+	 *            null
 	 */
-	private int height;
+	Book(Attributes attributes) {
+		this.attributes = attributes;
+	}
+
 	/**
-	 * the color of the book
+	 * Getter of the identifier of the book, stable and unique in the catalog
+	 * 
+	 * @return the identifier, 0 if the book has none yet
 	 */
-	private Color color;
+	public long getId() {
+		return attributes.id;
+	}
 
 	/**
-	 * Book's constructor with the title and the author of the book.
+	 * Setter of the identifier of the book
 	 * 
-	 * @param the
-	 *            title of the book
-	 * @param the
-	 *            author of the book
+	 * @param id
+	 *            the identifier, positive
 	 */
-	public Book(String title, Author author, int year) {
-		this.title = title;
-		this.author = author;
-		this.year = year;
+	public void setId(long id) {
+		checkNotFrozen();
+		attributes.id = id;
+		attributes.version++;
 	}
 
-	public Book() {}
-
 	/**
 	 * Getter of the title of the book
 	 * 
 	 * @return the title of the book
 	 */
 	public String getTitle() {
-		return title;
+		return attributes.title;
 	}
 
 	/**
@@ -75,7 +87,21 @@ public class Book {
 	 *            title of the book
 	 */
 	public void setTitle(String title) {
-		this.title = title;
+		checkNotFrozen();
+		attributes.title = title;
+		attributes.version++;
+		attributes.titleSortKey = null;
+	}
+
+	/**
+	 * Getter of the sort key of the title, computed once
+	 * 
+	 * @return the sort key of the title (see SortKeys)
+	 */
+	public byte[] getTitleSortKey() {
+		if (attributes.titleSortKey == null)
+			attributes.titleSortKey = SortKeys.of(getTitle());
+		return attributes.titleSortKey;
 	}
 
 	/**
@@ -84,7 +110,7 @@ public class Book {
 	 * @return the author of the book
 	 */
 	public Author getAuthor() {
-		return author;
+		return attributes.author;
 	}
 
 	/**
@@ -94,7 +120,11 @@ public class Book {
 	 *            author of the book
 	 */
 	public void setAuthor(Author author) {
-		this.author = author;
+		checkNotFrozen();
+		// the sum of the versions of the book and of its author must grow
+		Author former = attributes.author;
+		attributes.version += 1 + (former == null ? 0 : former.getVersion());
+		attributes.author = author;
 	}
 
 	/**
@@ -103,7 +133,7 @@ public class Book {
 	 * @return the author of the book
 	 */
 	public int getYear() {
-		return year;
+		return attributes.year;
 	}
 
 	/**
@@ -113,49 +143,59 @@ public class Book {
 	 *            year of the book
 	 */
 	public void setYear(int year) {
-		this.year = year;
+		checkNotFrozen();
+		attributes.year = year;
+		attributes.version++;
+		if (attributes.yearWatched)
+			Versions.next();
 	}
 
 	/**
 	 * @return the width
 	 */
 	public int getWidth() {
-		return width;
+		return attributes.width;
 	}
 
 	/**
 	 * @param width the width to set
 	 */
 	public void setWidth(int width) {
-		this.width = width;
+		checkNotFrozen();
+		attributes.width = width;
+		attributes.version++;
 	}
 
 	/**
 	 * @return the height
 	 */
 	public int getHeight() {
-		return height;
+		return attributes.height;
 	}
 
 	/**
 	 * @param height the height to set
 	 */
 	public void setHeight(int height) {
-		this.height = height;
+		checkNotFrozen();
+		attributes.height = height;
+		attributes.version++;
 	}
 
 	/**
 	 * @return the color
 	 */
 	public Color getColor() {
-		return color;
+		return attributes.color;
 	}
 
 	/**
 	 * @param color the color to set
 	 */
 	public void setColor(Color color) {
-		this.color = color;
+		checkNotFrozen();
+		attributes.color = color;
+		attributes.version++;
 	}
 
 	/***
@@ -184,14 +224,107 @@ public class Book {
 	 */
 	@Override
 	public String toString() {
-		return "Book [title=" + title + "]";
+		return "Book [title=" + getTitle() + "]";
+	}
+
+	/**
+	 * Getter of the version stamp of the book, which also covers its author
+	 * 
+	 * @return a stamp that grows each time the book or its author is modified
+	 */
+	public long getVersion() {
+		Author author = getAuthor();
+		return author == null ? attributes.version : attributes.version + author.getVersion();
+	}
+
+	/**
+	 * Tell the clock of the model (see Versions) of each later change of the
+	 * year of the book, which is indexed by year
+	 */
+	void watchYear() {
+		attributes.yearWatched = true;
+	}
+
+	/**
+	 * Make the book immutable: the setters then throw an
+	 * UnsupportedOperationException, and the hashcode is computed once. An
+	 * author not yet frozen is replaced by a frozen copy, so that the author
+	 * given to the book, which other books may share, can still be modified.
+	 * Only the books used as values (keys of caches, exports...) should be
+	 * frozen, since the view resizes its books.
+	 * 
+	 * @return this book
+	 */
+	public Book freeze() {
+		if (!attributes.frozen) {
+			Author author = getAuthor();
+			if (author != null && !author.isFrozen())
+				attributes.author = new Author(author.getLastName(), author.getFirstName()).freeze();
+			attributes.hash = computeHash();
+			attributes.frozen = true;
+		}
+		return this;
+	}
+
+	/**
+	 * @return true if the book can no longer be modified
+	 */
+	public boolean isFrozen() {
+		return attributes != null && attributes.frozen;
+	}
+
+	/**
+	 * Return a new book with the attributes of this one, which can be
+	 * modified even if this one is frozen. The author is shared.
+	 * 
+	 * @return a copy of the book
+	 */
+	public Book copy() {
+		Book copy = new Book(getTitle(), getAuthor(), getYear());
+		copy.setWidth(getWidth());
+		copy.setHeight(getHeight());
+		copy.setColor(getColor());
+		copy.setId(getId());
+		return copy;
+	}
+
+	/**
+	 * Run a setter that fills in an attribute read lazily (see LazyBook): the
+	 * book has not changed, so its version stamp is kept.
+	 * 
+	 * @param setter
+	 */
+	final void load(Runnable setter) {
+		long loadedVersion = attributes.version;
+		setter.run();
+		attributes.version = loadedVersion;
+	}
+
+	private void checkNotFrozen() {
+		if (attributes.frozen)
+			throw new UnsupportedOperationException("The book " + attributes.title + " is frozen");
 	}
 
 	/***
 	 * 
 	 */
 	public int hashCode() {
-		return Objects.hash(author, color, height, title, width, year);
+		return isFrozen() ? attributes.hash : computeHash();
+	}
+
+	/**
+	 * @return the value of Objects.hash(author, color, height, title, width,
+	 *         year), without allocating its array
+	 */
+	private int computeHash() {
+		int result = 1;
+		result = 31 * result + Objects.hashCode(getAuthor());
+		result = 31 * result + Objects.hashCode(getColor());
+		result = 31 * result + getHeight();
+		result = 31 * result + Objects.hashCode(getTitle());
+		result = 31 * result + getWidth();
+		result = 31 * result + getYear();
+		return result;
 	}
 
 	/***
@@ -205,9 +338,9 @@ public class Book {
 		if (!(book instanceof Book))
 			return false;
 		Book castedBook = (Book) book;
-		return this.author.equals(castedBook.author) && this.color.equals(castedBook.color)
-				&& this.height == castedBook.height && this.title.equals(castedBook.title)
-				&& this.width == castedBook.width && this.year == castedBook.year;
+		return this.getAuthor().equals(castedBook.getAuthor()) && this.getColor().equals(castedBook.getColor())
+				&& this.getHeight() == castedBook.getHeight() && this.getTitle().equals(castedBook.getTitle())
+				&& this.getWidth() == castedBook.getWidth() && this.getYear() == castedBook.getYear();
 	}
 
 	/***
@@ -219,24 +352,24 @@ public class Book {
 
 		switch (position) {
 		case 0:
-			this.author.setLastName(word);
+			this.getAuthor().setLastName(word);
 			break;
 		case 1:
-			this.author.setFirstName(word);
+			this.getAuthor().setFirstName(word);
 			break;
 		case 2:
-			this.title = word;
+			this.setTitle(word);
 			break;
 		case 3:
 			int year = Integer.parseInt(word);
-			this.year = year;
+			this.setYear(year);
 			break;
 		case 4:
 			if (word == "") {
 				this.generateSizeX();
 			} else {
 				int dimx = Integer.parseInt(word);
-				this.width = dimx;
+				this.setWidth(dimx);
 			}
 			break;
 		case 5:
@@ -244,38 +377,41 @@ public class Book {
 				this.generateSizeY();
 			} else {
 				int dimy = Integer.parseInt(word);
-				this.height = dimy;
+				this.setHeight(dimy);
 			}
 			break;
 		case 6:
 			switch (word) {
 			case "rose":
-				this.color = Color.pink;
+				this.setColor(Color.pink);
 				break;
 			case "violet":
-				this.color = Color.decode("#9933FF");
+				this.setColor(Color.decode("#9933FF"));
 				break;
 			case "bleu":
-				this.color = Color.BLUE;
+				this.setColor(Color.BLUE);
 				break;
 			case "orange":
-				this.color = Color.ORANGE;
+				this.setColor(Color.ORANGE);
 				break;
 			case "jaune":
-				this.color = Color.yellow;
+				this.setColor(Color.yellow);
 				break;
 			case "vert":
-				this.color = Color.decode("#92c544");
+				this.setColor(Color.decode("#92c544"));
 				break;
 			case "rouge":
-				this.color = Color.decode("#d41c1c");
+				this.setColor(Color.decode("#d41c1c"));
 			}
 			break;
 		case 7:
-			if (word == "End") {
-				break;
-			}
-
+			// "End"
+			break;
+		case 8:
+			// the record may be padded with spaces (see DataFile.updateLine)
+			if (!word.trim().isEmpty())
+				this.setId(Long.parseLong(word.trim()));
+			break;
 		}
 	}
 
@@ -287,45 +423,114 @@ public class Book {
 	 * @return true if this book is older than the book to compare.
 	 */
 	public boolean compareYear(Book bookToCompare) {
-		return this.year <= bookToCompare.getYear();
+		return this.getYear() <= bookToCompare.getYear();
 	}
 
-}
-
-/**
- * A comparator of books by title
- * 
- * @author lejema160
- *
- */
-class BookCompareByTitle implements Comparator<Book> {
-
 	/**
-	 * implementation of the compare method of Comparator<>
-	 * 
-	 * @param b1
-	 *            b2 the books we compare
-	 * @return an int, less than 0 if b1 is lexically after b2 more than 0 if b1
-	 *         is lexically before b2 equal to 0 if b1 is equal to b2
+	 * The attributes of a book
 	 */
-	@Override
-	public int compare(Book b1, Book b2) {
-		return (b1.getTitle().compareTo(b2.getTitle()));
+	static final class Attributes {
+
+		/**
+		 * The title of the book.
+		 */
+		private String title;
+		/**
+		 * The author of the book.
+		 */
+		private Author author;
+		private int year;
+		private int width;
+		private int height;
+		private Color color;
+		/**
+		 * The identifier of the book in the catalog, 0 if it has none
+		 */
+		private long id;
+		/**
+		 * The sort key of the title, computed when first needed
+		 */
+		private byte[] titleSortKey;
+		/**
+		 * True once the book can no longer be modified
+		 */
+		private boolean frozen;
+		/**
+		 * The hashcode, computed when the book is frozen
+		 */
+		private int hash;
+		/**
+		 * The version stamp, the number of changes of the book
+		 */
+		private long version;
+		/**
+		 * True once the book is indexed by year (see watchYear)
+		 */
+		private boolean yearWatched;
 	}
-}
-
-class BookCompareByAuthor implements Comparator<Book> {
 
 	/**
-	 * implementation of the compare method of Comparator<>
+	 * Builder of frozen books. For instance:
 	 * 
-	 * @param b1
-	 *            b2 the books we compare
-	 * @return an int, less than 0 if b1 is lexically after b2 more than 0 if b1
-	 *         is lexically before b2 equal to 0 if b1 is equal to b2
+	 * <pre>
+	 * Book book = new Book.Builder().title("Les Misérables").author(hugo).year(1862).build();
+	 * </pre>
+	 * 
+	 * The builder can be reused: each call of build gives a new book.
 	 */
-	@Override
-	public int compare(Book b1, Book b2) {
-		return (b1.getAuthor().getLastName().compareTo(b2.getAuthor().getLastName()));
+	public static class Builder {
+
+		private Book book = newBook();
+
+		private static Book newBook() {
+			Book book = new Book();
+			book.setAuthor(new Author("", ""));
+			return book;
+		}
+
+		public Builder id(long id) {
+			book.setId(id);
+			return this;
+		}
+
+		public Builder title(String title) {
+			book.setTitle(title);
+			return this;
+		}
+
+		public Builder author(Author author) {
+			book.setAuthor(author);
+			return this;
+		}
+
+		public Builder year(int year) {
+			book.setYear(year);
+			return this;
+		}
+
+		public Builder width(int width) {
+			book.setWidth(width);
+			return this;
+		}
+
+		public Builder height(int height) {
+			book.setHeight(height);
+			return this;
+		}
+
+		public Builder color(Color color) {
+			book.setColor(color);
+			return this;
+		}
+
+		/**
+		 * @return a new frozen book with the attributes given to this builder
+		 */
+		public Book build() {
+			Book built = book.freeze();
+			book = newBook();
+			return built;
+		}
 	}
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,25 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.Comparator;
+
+/**
+ * A comparator of books by title, in French alphabetical order
+ * 
+ * @author lejema160
+ *
+ */
+class BookCompareByTitle implements Comparator<Book> {
+
+	/**
+	 * implementation of the compare method of Comparator<>
+	 * 
+	 * @param b1
+	 *            b2 the books we compare
+	 * @return an int, less than 0 if b1 is lexically after b2 more than 0 if b1
+	 *         is lexically before b2 equal to 0 if b1 is equal to b2
+	 */
+	@Override
+	public int compare(Book b1, Book b2) {
+		return SortKeys.compare(b1.getTitleSortKey(), b2.getTitleSortKey());
+	}
+}
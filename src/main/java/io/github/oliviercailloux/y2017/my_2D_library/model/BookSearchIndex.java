@@ -0,0 +1,350 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * BookSearchIndex finds the books of a library by the words of their title and
+ * of the names of their author. Each word is lowercased and stripped of its
+ * accents, then indexed in two ways: a map from the word to its books (the
+ * inverted index), and a trie of the words, to find the words beginning with
+ * a prefix. The books of the prefixes of one or two letters, which begin
+ * most of the words, are also kept, so that a short prefix is not answered by
+ * going through all these words.
+ *
+ * A query returns the books having all its words, the last word of the query
+ * being only the beginning of a word, so that "hugo mis" finds "Les
+ * Misérables" by Victor Hugo. Each book has a rank in the order of indexing,
+ * and the books of a word are kept by rank: the books having all the words
+ * are found in this order, without sorting them.
+ *
+ * The title and the author of a book must not change while it is indexed.
+ */
+final class BookSearchIndex implements LibraryIndex {
+
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+	/**
+	 * The longest prefix whose books are kept
+	 */
+	private static final int SHORT_PREFIX_LENGTH = 2;
+
+	/**
+	 * The books of each word, by rank
+	 */
+	private final Map<String, TreeMap<Long, Book>> postings = new HashMap<>();
+
+	/**
+	 * The books of each prefix of at most SHORT_PREFIX_LENGTH letters, by rank
+	 */
+	private final Map<String, TreeMap<Long, Book>> shortPrefixes = new HashMap<>();
+
+	/**
+	 * The words, to find them by prefix
+	 */
+	private final TrieNode words = new TrieNode();
+
+	/**
+	 * The words each book was indexed with
+	 */
+	private final Map<Book, String[]> tokensOf = new IdentityHashMap<>();
+
+	/**
+	 * The rank of each book in the order of indexing
+	 */
+	private final Map<Book, Long> ranks = new IdentityHashMap<>();
+	private long nextRank;
+
+	@Override
+	public void add(Book book) {
+		if (ranks.containsKey(book))
+			return;
+		String[] tokens = tokensOf(book);
+		long rank = nextRank++;
+		tokensOf.put(book, tokens);
+		ranks.put(book, rank);
+		for (String token : tokens) {
+			TreeMap<Long, Book> books = postings.get(token);
+			if (books == null) {
+				books = new TreeMap<>();
+				postings.put(token, books);
+				words.insert(token);
+			}
+			books.put(rank, book);
+		}
+		for (String prefix : shortPrefixesOf(tokens)) {
+			TreeMap<Long, Book> books = shortPrefixes.get(prefix);
+			if (books == null) {
+				books = new TreeMap<>();
+				shortPrefixes.put(prefix, books);
+			}
+			books.put(rank, book);
+		}
+	}
+
+	@Override
+	public void remove(Book book) {
+		String[] tokens = tokensOf.remove(book);
+		if (tokens == null)
+			return;
+		Long rank = ranks.remove(book);
+		for (String token : tokens) {
+			TreeMap<Long, Book> books = postings.get(token);
+			if (books != null && books.remove(rank) != null && books.isEmpty()) {
+				postings.remove(token);
+				words.delete(token);
+			}
+		}
+		for (String prefix : shortPrefixesOf(tokens)) {
+			TreeMap<Long, Book> books = shortPrefixes.get(prefix);
+			if (books != null && books.remove(rank) != null && books.isEmpty())
+				shortPrefixes.remove(prefix);
+		}
+	}
+
+	@Override
+	public void clear() {
+		postings.clear();
+		shortPrefixes.clear();
+		words.clear();
+		tokensOf.clear();
+		ranks.clear();
+		nextRank = 0;
+	}
+
+	/**
+	 * @param query
+	 *            words separated by spaces or punctuation, the last one may be
+	 *            incomplete
+	 * @return the books having all the words of the query, in the order they
+	 *         were indexed; no book if the query has no word
+	 */
+	List<Book> search(String query) {
+		String[] tokens = tokenize(query);
+		if (tokens.length == 0)
+			return new ArrayList<>();
+		List<TreeMap<Long, Book>> sets = new ArrayList<>(tokens.length);
+		for (int index = 0; index < tokens.length - 1; index++) {
+			TreeMap<Long, Book> books = postings.get(tokens[index]);
+			if (books == null)
+				return new ArrayList<>();
+			sets.add(books);
+		}
+		TreeMap<Long, Book> prefixed = booksByPrefix(tokens[tokens.length - 1]);
+		if (prefixed.isEmpty())
+			return new ArrayList<>();
+		sets.add(prefixed);
+
+		// intersect from the smallest set, in the order of the ranks
+		sets.sort(Comparator.comparingInt(TreeMap::size));
+		List<Book> found = new ArrayList<>();
+		for (Map.Entry<Long, Book> book : sets.get(0).entrySet()) {
+			boolean inAll = true;
+			for (int index = 1; index < sets.size() && inAll; index++)
+				inAll = sets.get(index).containsKey(book.getKey());
+			if (inAll)
+				found.add(book.getValue());
+		}
+		return found;
+	}
+
+	/**
+	 * @param book
+	 * @param query
+	 * @return true if the words of the query are all the words of the title
+	 *         of the book, and possibly words of the names of its author, each
+	 *         one complete
+	 */
+	static boolean matchesExactly(Book book, String query) {
+		Set<String> tokens = new HashSet<>(Arrays.asList(tokenize(query)));
+		return !tokens.isEmpty() && tokens.containsAll(Arrays.asList(tokenize(book.getTitle())))
+				&& Arrays.asList(tokensOf(book)).containsAll(tokens);
+	}
+
+	/**
+	 * @return the books having a word beginning with the prefix, by rank
+	 */
+	private TreeMap<Long, Book> booksByPrefix(String prefix) {
+		if (prefix.length() <= SHORT_PREFIX_LENGTH) {
+			TreeMap<Long, Book> books = shortPrefixes.get(prefix);
+			return books == null ? new TreeMap<>() : books;
+		}
+		List<String> tokens = new ArrayList<>();
+		words.collect(prefix, tokens);
+		if (tokens.size() == 1)
+			return postings.get(tokens.get(0));
+		TreeMap<Long, Book> books = new TreeMap<>();
+		for (String token : tokens)
+			books.putAll(postings.get(token));
+		return books;
+	}
+
+	/**
+	 * @return the distinct prefixes of at most SHORT_PREFIX_LENGTH letters of
+	 *         the words
+	 */
+	private static Set<String> shortPrefixesOf(String[] tokens) {
+		Set<String> prefixes = new HashSet<>();
+		for (String token : tokens) {
+			for (int length = 1; length <= SHORT_PREFIX_LENGTH && length <= token.length(); length++)
+				prefixes.add(token.substring(0, length));
+		}
+		return prefixes;
+	}
+
+	/**
+	 * @return the number of nodes of the trie of the words
+	 */
+	int trieSize() {
+		return words.size();
+	}
+
+	/**
+	 * @return the distinct words of the title and of the names of the author
+	 */
+	private static String[] tokensOf(Book book) {
+		Set<String> tokens = new LinkedHashSet<>();
+		tokens.addAll(Arrays.asList(tokenize(book.getTitle())));
+		Author author = book.getAuthor();
+		if (author != null) {
+			tokens.addAll(Arrays.asList(tokenize(author.getLastName())));
+			tokens.addAll(Arrays.asList(tokenize(author.getFirstName())));
+		}
+		return tokens.toArray(new String[tokens.size()]);
+	}
+
+	/**
+	 * @param text
+	 *            may be null
+	 * @return the words of the text, lowercased and without accents
+	 */
+	static String[] tokenize(String text) {
+		if (text == null)
+			return new String[0];
+		String plain = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+		String trimmed = SEPARATORS.matcher(plain.toLowerCase(Locale.FRENCH)).replaceAll(" ").trim();
+		return trimmed.isEmpty() ? new String[0] : trimmed.split(" ");
+	}
+
+	/**
+	 * A node of the trie of the words: its children are sorted by character
+	 */
+	private static final class TrieNode {
+
+		private char[] chars = new char[0];
+		private TrieNode[] children = new TrieNode[0];
+		/**
+		 * The word ending at this node, or null
+		 */
+		private String word;
+
+		void insert(String token) {
+			TrieNode node = this;
+			for (int index = 0; index < token.length(); index++)
+				node = node.child(token.charAt(index), true);
+			node.word = token;
+		}
+
+		/**
+		 * Remove the word, and the nodes left without word nor children
+		 */
+		void delete(String token) {
+			delete(token, 0);
+		}
+
+		/**
+		 * @return true if this node is left without word nor children
+		 */
+		private boolean delete(String token, int depth) {
+			if (depth == token.length()) {
+				word = null;
+			} else {
+				int index = Arrays.binarySearch(chars, token.charAt(depth));
+				if (index >= 0 && children[index].delete(token, depth + 1))
+					removeChild(index);
+			}
+			return word == null && children.length == 0;
+		}
+
+		private void removeChild(int index) {
+			char[] newChars = new char[chars.length - 1];
+			TrieNode[] newChildren = new TrieNode[children.length - 1];
+			System.arraycopy(chars, 0, newChars, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(chars, index + 1, newChars, index, chars.length - index - 1);
+			System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+			chars = newChars;
+			children = newChildren;
+		}
+
+		/**
+		 * @return the number of nodes of the trie under this one, this one
+		 *         included
+		 */
+		int size() {
+			int size = 1;
+			for (TrieNode child : children)
+				size += child.size();
+			return size;
+		}
+
+		void clear() {
+			chars = new char[0];
+			children = new TrieNode[0];
+			word = null;
+		}
+
+		/**
+		 * Add to the list the words beginning with the prefix
+		 */
+		void collect(String prefix, List<String> tokens) {
+			TrieNode node = this;
+			for (int index = 0; index < prefix.length() && node != null; index++)
+				node = node.child(prefix.charAt(index), false);
+			if (node != null)
+				node.collectAll(tokens);
+		}
+
+		private void collectAll(List<String> tokens) {
+			if (word != null)
+				tokens.add(word);
+			for (TrieNode child : children)
+				child.collectAll(tokens);
+		}
+
+		private TrieNode child(char c, boolean create) {
+			int index = Arrays.binarySearch(chars, c);
+			if (index >= 0)
+				return children[index];
+			if (!create)
+				return null;
+			int insertion = -index - 1;
+			char[] newChars = new char[chars.length + 1];
+			TrieNode[] newChildren = new TrieNode[children.length + 1];
+			System.arraycopy(chars, 0, newChars, 0, insertion);
+			System.arraycopy(children, 0, newChildren, 0, insertion);
+			System.arraycopy(chars, insertion, newChars, insertion + 1, chars.length - insertion);
+			System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+			TrieNode child = new TrieNode();
+			newChars[insertion] = c;
+			newChildren[insertion] = child;
+			chars = newChars;
+			children = newChildren;
+			return child;
+		}
+	}
+
+}
@@ -0,0 +1,532 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.awt.Color;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BookTable stores books column by column: one array of int per attribute,
+ * colours packed as ARGB ints, and authors and titles replaced by their index
+ * in a dictionary, so that a book costs a few ints instead of several objects.
+ *
+ * A row is read and written through a lightweight Book view (see
+ * {@link #get(int)}). The authors of the dictionary are shared by all the rows
+ * and are frozen.
+ */
+public class BookTable {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(BookTable.class);
+
+	/**
+	 * The packed value of a book without colour (transparent black is never
+	 * used by the books)
+	 */
+	static final int NO_COLOR = 0;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The number of rows
+	 */
+	private int size;
+
+	private int[] years = new int[INITIAL_CAPACITY];
+	private int[] widths = new int[INITIAL_CAPACITY];
+	private int[] heights = new int[INITIAL_CAPACITY];
+	private int[] colors = new int[INITIAL_CAPACITY];
+	private int[] authorIds = new int[INITIAL_CAPACITY];
+	private int[] titleIds = new int[INITIAL_CAPACITY];
+	private long[] ids = new long[INITIAL_CAPACITY];
+
+	/**
+	 * The dictionary of the authors, by id
+	 */
+	private final List<Author> authors = new ArrayList<>();
+	private final Map<Author, Integer> authorsIds = new HashMap<>();
+
+	/**
+	 * The dictionary of the titles, by id
+	 */
+	private final List<String> titles = new ArrayList<>();
+	private final Map<String, Integer> titlesIds = new HashMap<>();
+	/**
+	 * The sort keys of the titles, by id, computed when first needed
+	 */
+	private final List<byte[]> titlesSortKeys = new ArrayList<>();
+
+	/**
+	 * The colours already unpacked, by packed value
+	 */
+	private final Map<Integer, Color> palette = new HashMap<>();
+
+	/**
+	 * The version stamp, the number of changes of the rows
+	 */
+	private long version;
+	/**
+	 * True once the rows are indexed by year (see Book.watchYear)
+	 */
+	private boolean yearsWatched;
+
+	/**
+	 * Getter of the number of books of the table
+	 *
+	 * @return the number of rows
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add a row with the attributes of the book. The book itself is not kept.
+	 *
+	 * @param book
+	 * @return the index of the new row
+	 */
+	public int add(Book book) {
+		if (size == years.length) {
+			int capacity = size * 2;
+			years = Arrays.copyOf(years, capacity);
+			widths = Arrays.copyOf(widths, capacity);
+			heights = Arrays.copyOf(heights, capacity);
+			colors = Arrays.copyOf(colors, capacity);
+			authorIds = Arrays.copyOf(authorIds, capacity);
+			titleIds = Arrays.copyOf(titleIds, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+		}
+		int row = size++;
+		setTitle(row, book.getTitle());
+		setAuthor(row, book.getAuthor());
+		years[row] = book.getYear();
+		widths[row] = book.getWidth();
+		heights[row] = book.getHeight();
+		setColor(row, book.getColor());
+		ids[row] = book.getId();
+		version++;
+		return row;
+	}
+
+	/**
+	 * Return a view of the row as a Book. Each call creates a new view; the
+	 * setters of the view write in the table.
+	 *
+	 * @param row
+	 * @return the book stored in the row
+	 */
+	public Book get(int row) {
+		checkRow(row);
+		return new TableBook(this, row);
+	}
+
+	/**
+	 * Return a list of views of all the rows, one view per row.
+	 *
+	 * @return the books of the table
+	 */
+	public List<Book> getBooks() {
+		List<Book> books = new ArrayList<>(size);
+		for (int row = 0; row < size; row++)
+			books.add(new TableBook(this, row));
+		return books;
+	}
+
+	public long getId(int row) {
+		checkRow(row);
+		return ids[row];
+	}
+
+	public void setId(int row, long id) {
+		checkRow(row);
+		ids[row] = id;
+		version++;
+	}
+
+	public String getTitle(int row) {
+		checkRow(row);
+		return titles.get(titleIds[row]);
+	}
+
+	public void setTitle(int row, String title) {
+		checkRow(row);
+		Integer id = titlesIds.get(title);
+		if (id == null) {
+			id = titles.size();
+			titles.add(title);
+			titlesSortKeys.add(null);
+			titlesIds.put(title, id);
+		}
+		titleIds[row] = id;
+		version++;
+	}
+
+	/**
+	 * Getter of the sort key of the title of the row, computed once per
+	 * distinct title
+	 *
+	 * @param row
+	 * @return the sort key of the title (see SortKeys)
+	 */
+	public byte[] getTitleSortKey(int row) {
+		checkRow(row);
+		int id = titleIds[row];
+		byte[] key = titlesSortKeys.get(id);
+		if (key == null) {
+			key = SortKeys.of(titles.get(id));
+			titlesSortKeys.set(id, key);
+		}
+		return key;
+	}
+
+	public Author getAuthor(int row) {
+		checkRow(row);
+		return authors.get(authorIds[row]);
+	}
+
+	/**
+	 * Set the author of the row. The first author equal to it is kept in the
+	 * dictionary, as a copy since the given one may be modified afterwards.
+	 *
+	 * @param row
+	 * @param author
+	 */
+	public void setAuthor(int row, Author author) {
+		checkRow(row);
+		Integer id = authorsIds.get(author);
+		if (id == null) {
+			Author copy = author == null ? null : new Author(author.getLastName(), author.getFirstName()).freeze();
+			id = authors.size();
+			authors.add(copy);
+			authorsIds.put(copy, id);
+		}
+		authorIds[row] = id;
+		version++;
+	}
+
+	public int getYear(int row) {
+		checkRow(row);
+		return years[row];
+	}
+
+	public void setYear(int row, int year) {
+		checkRow(row);
+		years[row] = year;
+		version++;
+		if (yearsWatched)
+			Versions.next();
+	}
+
+	public int getWidth(int row) {
+		checkRow(row);
+		return widths[row];
+	}
+
+	public void setWidth(int row, int width) {
+		checkRow(row);
+		widths[row] = width;
+		version++;
+	}
+
+	public int getHeight(int row) {
+		checkRow(row);
+		return heights[row];
+	}
+
+	public void setHeight(int row, int height) {
+		checkRow(row);
+		heights[row] = height;
+		version++;
+	}
+
+	public Color getColor(int row) {
+		checkRow(row);
+		int packed = colors[row];
+		if (packed == NO_COLOR)
+			return null;
+		Color color = palette.get(packed);
+		if (color == null) {
+			color = new Color(packed, true);
+			palette.put(packed, color);
+		}
+		return color;
+	}
+
+	public void setColor(int row, Color color) {
+		checkRow(row);
+		if (color == null) {
+			colors[row] = NO_COLOR;
+		} else {
+			colors[row] = color.getRGB();
+			palette.putIfAbsent(color.getRGB(), color);
+		}
+		version++;
+	}
+
+	/**
+	 * Getter of the version stamp of the table
+	 *
+	 * @return a stamp that changes each time a row is added or modified
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Tell the clock of the model of each later change of the year of a row
+	 * (see Book.watchYear)
+	 */
+	void watchYears() {
+		yearsWatched = true;
+	}
+
+	/**
+	 * Getter of the number of distinct authors of the table
+	 *
+	 * @return the size of the dictionary of the authors
+	 */
+	public int getNbAuthors() {
+		return authors.size();
+	}
+
+	/**
+	 * Getter of the number of distinct titles of the table
+	 *
+	 * @return the size of the dictionary of the titles
+	 */
+	public int getNbTitles() {
+		return titles.size();
+	}
+
+	/**
+	 * Write the table in binary, as read by {@link #read(ByteBuffer)}: the
+	 * dictionary of the authors, the one of the titles, then each column
+	 * (ints, and longs for the identifiers). A string is written as the
+	 * length of its UTF-8 bytes, -1 for null, then the bytes.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(authors.size());
+		for (Author author : authors) {
+			out.writeBoolean(author != null);
+			if (author != null) {
+				writeString(out, author.getLastName());
+				writeString(out, author.getFirstName());
+			}
+		}
+		out.writeInt(titles.size());
+		for (String title : titles)
+			writeString(out, title);
+		out.writeInt(size);
+		for (int row = 0; row < size; row++)
+			out.writeLong(ids[row]);
+		for (int[] column : new int[][] { years, widths, heights, colors, authorIds, titleIds }) {
+			for (int row = 0; row < size; row++)
+				out.writeInt(column[row]);
+		}
+	}
+
+	/**
+	 * Read a table written by {@link #write(DataOutput)}, from the position of
+	 * the buffer. The columns are copied in bulk, without creating a Book.
+	 *
+	 * @param buffer
+	 *            big-endian, as written by a DataOutput
+	 * @return the table read
+	 * @throws BufferUnderflowException
+	 *             if the buffer ends before the table
+	 */
+	public static BookTable read(ByteBuffer buffer) {
+		BookTable table = new BookTable();
+		int nbAuthors = buffer.getInt();
+		for (int id = 0; id < nbAuthors; id++) {
+			Author author = null;
+			if (buffer.get() != 0) {
+				String lastName = readString(buffer);
+				author = new Author(lastName, readString(buffer)).freeze();
+			}
+			table.authors.add(author);
+			table.authorsIds.put(author, id);
+		}
+		int nbTitles = buffer.getInt();
+		for (int id = 0; id < nbTitles; id++) {
+			String title = readString(buffer);
+			table.titles.add(title);
+			table.titlesSortKeys.add(null);
+			table.titlesIds.put(title, id);
+		}
+		int size = buffer.getInt();
+		int capacity = Math.max(size, INITIAL_CAPACITY);
+		table.ids = new long[capacity];
+		buffer.asLongBuffer().get(table.ids, 0, size);
+		buffer.position(buffer.position() + 8 * size);
+		int[][] columns = new int[6][];
+		for (int index = 0; index < columns.length; index++) {
+			columns[index] = new int[capacity];
+			buffer.asIntBuffer().get(columns[index], 0, size);
+			buffer.position(buffer.position() + 4 * size);
+		}
+		table.years = columns[0];
+		table.widths = columns[1];
+		table.heights = columns[2];
+		table.colors = columns[3];
+		table.authorIds = columns[4];
+		table.titleIds = columns[5];
+		table.size = size;
+		return table;
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+	}
+
+	@Override
+	public String toString() {
+		return "BookTable [size=" + size + ", authors=" + authors.size() + ", titles=" + titles.size() + "]";
+	}
+
+}
+
+/**
+ * A Book that reads and writes its attributes in a row of a BookTable: it
+ * carries none of the attributes of a Book, only the table and the row
+ */
+final class TableBook extends Book {
+
+	private final BookTable table;
+	private final int row;
+
+	TableBook(BookTable table, int row) {
+		super((Book.Attributes) null);
+		this.table = table;
+		this.row = row;
+	}
+
+	@Override
+	public long getId() {
+		return table.getId(row);
+	}
+
+	@Override
+	public void setId(long id) {
+		table.setId(row, id);
+	}
+
+	@Override
+	public String getTitle() {
+		return table.getTitle(row);
+	}
+
+	@Override
+	public void setTitle(String title) {
+		table.setTitle(row, title);
+	}
+
+	@Override
+	public byte[] getTitleSortKey() {
+		return table.getTitleSortKey(row);
+	}
+
+	@Override
+	public Author getAuthor() {
+		return table.getAuthor(row);
+	}
+
+	@Override
+	public void setAuthor(Author author) {
+		table.setAuthor(row, author);
+	}
+
+	@Override
+	public int getYear() {
+		return table.getYear(row);
+	}
+
+	@Override
+	public void setYear(int year) {
+		table.setYear(row, year);
+	}
+
+	@Override
+	public int getWidth() {
+		return table.getWidth(row);
+	}
+
+	@Override
+	public void setWidth(int width) {
+		table.setWidth(row, width);
+	}
+
+	@Override
+	public int getHeight() {
+		return table.getHeight(row);
+	}
+
+	@Override
+	public void setHeight(int height) {
+		table.setHeight(row, height);
+	}
+
+	@Override
+	public Color getColor() {
+		return table.getColor(row);
+	}
+
+	@Override
+	public void setColor(Color color) {
+		table.setColor(row, color);
+	}
+
+	/**
+	 * The rows have no stamp of their own: the stamp of the table changes
+	 * with any of them
+	 */
+	@Override
+	public long getVersion() {
+		return table.getVersion();
+	}
+
+	@Override
+	void watchYear() {
+		table.watchYears();
+	}
+
+	/**
+	 * A row can always be written through the table, so it cannot be frozen
+	 */
+	@Override
+	public Book freeze() {
+		throw new UnsupportedOperationException("A row of a table cannot be frozen");
+	}
+}
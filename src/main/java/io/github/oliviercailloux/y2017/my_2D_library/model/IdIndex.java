@@ -0,0 +1,41 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * IdIndex finds the books of a library by their identifier. The books without
+ * identifier are not indexed.
+ *
+ * The identifier of a book must not change while the book is indexed.
+ */
+final class IdIndex implements LibraryIndex {
+
+	private final Map<Long, Book> books = new HashMap<>();
+
+	@Override
+	public void add(Book book) {
+		if (book.getId() != 0)
+			books.put(book.getId(), book);
+	}
+
+	@Override
+	public void remove(Book book) {
+		if (book.getId() != 0)
+			books.remove(book.getId(), book);
+	}
+
+	@Override
+	public void clear() {
+		books.clear();
+	}
+
+	/**
+	 * @param id
+	 * @return the book of this identifier, or null
+	 */
+	Book get(long id) {
+		return books.get(id);
+	}
+
+}
@@ -0,0 +1,242 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LazyBook is a book read from a record of the csv file (see
+ * Book.setBookAttribute for the columns) that keeps the UTF-8 bytes of the
+ * record and decodes a column only the first time it is read. Sorting by year
+ * thus never builds the strings of the titles and names.
+ *
+ * A column is decoded as DataFile would do it, so a wrong year only throws
+ * when the year is read. The bytes of the record must not change: they must
+ * be a copy, not a mapping of the csv file, whose records may be written over
+ * in place.
+ */
+public final class LazyBook extends Book {
+
+	private static final int AUTHOR = 1;
+	private static final int TITLE = 1 << 1;
+	private static final int YEAR = 1 << 2;
+	private static final int WIDTH = 1 << 3;
+	private static final int HEIGHT = 1 << 4;
+	private static final int COLOR = 1 << 5;
+	private static final int ID = 1 << 6;
+
+	private final ByteBuffer record;
+	/**
+	 * The offsets in the record of the first byte and after the last byte of
+	 * each column; the first offset is complemented (~) if the value is quoted
+	 */
+	private final int[] bounds;
+	private final AuthorPool authors;
+	/**
+	 * The columns already decoded
+	 */
+	private int decoded;
+
+	/**
+	 * @param record
+	 *            the bytes of the record, read with absolute gets
+	 * @param bounds
+	 *            two offsets per column: the first byte, complemented (~) if
+	 *            the value is quoted, and the byte after the last one
+	 * @param authors
+	 *            the pool of the authors
+	 */
+	public LazyBook(ByteBuffer record, int[] bounds, AuthorPool authors) {
+		this.record = record;
+		this.bounds = bounds;
+		this.authors = authors;
+	}
+
+	@Override
+	public long getId() {
+		if ((decoded & ID) == 0) {
+			long id = isEmpty(8) ? 0 : Long.parseLong(decode(8).trim());
+			load(() -> super.setId(id));
+			decoded |= ID;
+		}
+		return super.getId();
+	}
+
+	@Override
+	public void setId(long id) {
+		super.setId(id);
+		decoded |= ID;
+	}
+
+	@Override
+	public String getTitle() {
+		if ((decoded & TITLE) == 0) {
+			String title = decode(2);
+			load(() -> super.setTitle(title));
+			decoded |= TITLE;
+		}
+		return super.getTitle();
+	}
+
+	@Override
+	public void setTitle(String title) {
+		super.setTitle(title);
+		decoded |= TITLE;
+	}
+
+	@Override
+	public Author getAuthor() {
+		if ((decoded & AUTHOR) == 0) {
+			Author author = authors.intern(decode(0), decode(1));
+			load(() -> super.setAuthor(author));
+			decoded |= AUTHOR;
+		}
+		return super.getAuthor();
+	}
+
+	@Override
+	public void setAuthor(Author author) {
+		super.setAuthor(author);
+		decoded |= AUTHOR;
+	}
+
+	@Override
+	public int getYear() {
+		if ((decoded & YEAR) == 0) {
+			int year = parseInt(3);
+			load(() -> super.setYear(year));
+			decoded |= YEAR;
+		}
+		return super.getYear();
+	}
+
+	@Override
+	public void setYear(int year) {
+		super.setYear(year);
+		decoded |= YEAR;
+	}
+
+	@Override
+	public int getWidth() {
+		if ((decoded & WIDTH) == 0) {
+			if (isEmpty(4)) {
+				load(this::generateSizeX);
+			} else {
+				int width = parseInt(4);
+				load(() -> super.setWidth(width));
+			}
+			decoded |= WIDTH;
+		}
+		return super.getWidth();
+	}
+
+	@Override
+	public void setWidth(int width) {
+		super.setWidth(width);
+		decoded |= WIDTH;
+	}
+
+	@Override
+	public int getHeight() {
+		if ((decoded & HEIGHT) == 0) {
+			if (isEmpty(5)) {
+				load(this::generateSizeY);
+			} else {
+				int height = parseInt(5);
+				load(() -> super.setHeight(height));
+			}
+			decoded |= HEIGHT;
+		}
+		return super.getHeight();
+	}
+
+	@Override
+	public void setHeight(int height) {
+		super.setHeight(height);
+		decoded |= HEIGHT;
+	}
+
+	@Override
+	public Color getColor() {
+		if ((decoded & COLOR) == 0) {
+			String color = decode(6);
+			load(() -> setBookAttribute(6, color));
+			decoded |= COLOR;
+		}
+		return super.getColor();
+	}
+
+	@Override
+	public void setColor(Color color) {
+		super.setColor(color);
+		decoded |= COLOR;
+	}
+
+	/**
+	 * Decode all the columns, then freeze the book
+	 */
+	@Override
+	public Book freeze() {
+		getId();
+		getTitle();
+		getAuthor();
+		getYear();
+		getWidth();
+		getHeight();
+		getColor();
+		return super.freeze();
+	}
+
+	private boolean isEmpty(int column) {
+		return 2 * column >= bounds.length || bounds[2 * column + 1] == start(column);
+	}
+
+	private int start(int column) {
+		int start = bounds[2 * column];
+		return start < 0 ? ~start : start;
+	}
+
+	/**
+	 * @return the value of the column, "" if it is empty
+	 */
+	private String decode(int column) {
+		if (isEmpty(column))
+			return "";
+		int start = start(column);
+		int end = bounds[2 * column + 1];
+		byte[] bytes = new byte[end - start];
+		int length = 0;
+		boolean quoted = bounds[2 * column] < 0;
+		for (int index = start; index < end; index++) {
+			byte b = record.get(index);
+			bytes[length++] = b;
+			// a quote in a quoted value is doubled
+			if (quoted && b == '"')
+				index++;
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse the digits of the column without building a string
+	 */
+	private int parseInt(int column) {
+		if (isEmpty(column))
+			return Integer.parseInt(decode(column));
+		int start = start(column);
+		int end = bounds[2 * column + 1];
+		boolean negative = end > start && record.get(start) == '-';
+		int index = negative ? start + 1 : start;
+		if (index == end || end - index > 9)
+			return Integer.parseInt(decode(column));
+		int value = 0;
+		for (; index < end; index++) {
+			int digit = record.get(index) - '0';
+			if (digit < 0 || digit > 9)
+				return Integer.parseInt(decode(column));
+			value = 10 * value + digit;
+		}
+		return negative ? -value : value;
+	}
+
+}
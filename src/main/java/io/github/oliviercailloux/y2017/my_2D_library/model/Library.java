@@ -5,9 +5,15 @@ package io.github.oliviercailloux.y2017.my_2D_library.model;
 import java.awt.Dimension;
 import java.awt.Toolkit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +25,11 @@ public class Library {
 
 	public static final Logger LOGGER = LoggerFactory.getLogger(Library.class);
 
+	/**
+	 * Below this number of books, splitting a sort costs more than it saves
+	 */
+	public static final int DEFAULT_PARALLEL_SORT_THRESHOLD = 1 << 13;
+
 	/**
 	 * The list of the shelves of the library
 	 */
@@ -31,6 +42,56 @@ public class Library {
 	 * The Weigth of the library is define by the size of users's frame
 	 */
 	private double frameSizeW;
+	/**
+	 * The maximum number of books on a shelf
+	 */
+	private int nbBooksPerShelf;
+	/**
+	 * Whether sortByTitle and sortByAuthor sort on several threads
+	 */
+	private boolean parallelSort;
+	/**
+	 * The minimum number of books for a parallel sort
+	 */
+	private int parallelSortThreshold = DEFAULT_PARALLEL_SORT_THRESHOLD;
+	/**
+	 * The books sorted by title, author and year, when the library is sort
+	 * indexed
+	 */
+	private SortIndex<byte[]> titleIndex;
+	private SortIndex<byte[]> authorIndex;
+	private SortIndex<Integer> yearIndex;
+	/**
+	 * The books by year for the year queries (see booksBetween), built by the
+	 * first of them, and the clock of the years and the version of the
+	 * library when it was up to date
+	 */
+	private SortIndex<Integer> yearQueryIndex;
+	private long yearQueryStamp;
+	private long yearQueryVersion;
+	/**
+	 * The shelf of each book, when the library is sort indexed
+	 */
+	private Map<Book, Shelf> shelfOf;
+	/**
+	 * The index of the words of the titles and authors, built by the first
+	 * search
+	 */
+	private BookSearchIndex searchIndex;
+	/**
+	 * The index of the identifiers, built by the first call of getBook
+	 */
+	private IdIndex idIndex;
+	/**
+	 * The indexes to keep up to date when a book is added or removed
+	 */
+	private final List<LibraryIndex> indexes = new ArrayList<>();
+
+	/**
+	 * The version stamp, the number of changes of the library and of its
+	 * shelves
+	 */
+	private long version;
 
 	/**
 	 * Constructor of a library with a list of shelves
@@ -40,12 +101,23 @@ public class Library {
 
 	public Library(List<Book> books, int nbBooksPerShelf) {
 		this.shelves = createLibrary(books, nbBooksPerShelf);
+		this.nbBooksPerShelf = nbBooksPerShelf;
 		Toolkit atk = Toolkit.getDefaultToolkit();
 		Dimension dim = atk.getScreenSize();
 		int w = dim.width;
 		this.frameSizeW = w;
 	}
 
+	/**
+	 * Constructor of a library backed by a table of books: the shelves hold
+	 * a lightweight view of each row of the table
+	 * @param table
+	 * @param nbBooksPerShelf
+	 */
+	public Library(BookTable table, int nbBooksPerShelf) {
+		this(table.getBooks(), nbBooksPerShelf);
+	}
+
 	public Library() {
 		super();
 	}
@@ -56,6 +128,7 @@ public class Library {
 
 	public void setFrameSizeH(double frameSizeH) {
 		this.frameSizeH = frameSizeH;
+		this.version++;
 	}
 
 	public double getFrameSizeW() {
@@ -64,6 +137,7 @@ public class Library {
 
 	public void setFrameSizeW(double frameSizeW) {
 		this.frameSizeW = frameSizeW;
+		this.version++;
 	}
 
 	/**
@@ -83,6 +157,378 @@ public class Library {
 	 */
 	public void setShelves(List<Shelf> shelves) {
 		this.shelves = shelves;
+		this.version++;
+		rebuildIndexes();
+	}
+
+	public int getNbBooksPerShelf() {
+		return nbBooksPerShelf;
+	}
+
+	/**
+	 * Setter of the maximum number of books on a shelf, used by the next
+	 * additions and reshelvings
+	 * 
+	 * @param nbBooksPerShelf
+	 */
+	public void setNbBooksPerShelf(int nbBooksPerShelf) {
+		this.nbBooksPerShelf = nbBooksPerShelf;
+	}
+
+	public boolean isParallelSort() {
+		return parallelSort;
+	}
+
+	/**
+	 * When parallelSort is true, sortByTitle and sortByAuthor sort the
+	 * libraries of at least parallelSortThreshold books on the common
+	 * fork/join pool. The sort stays stable.
+	 * 
+	 * @param parallelSort
+	 */
+	public void setParallelSort(boolean parallelSort) {
+		this.parallelSort = parallelSort;
+	}
+
+	public int getParallelSortThreshold() {
+		return parallelSortThreshold;
+	}
+
+	/**
+	 * Setter of the minimum number of books for a parallel sort
+	 * 
+	 * @param parallelSortThreshold
+	 */
+	public void setParallelSortThreshold(int parallelSortThreshold) {
+		this.parallelSortThreshold = parallelSortThreshold;
+	}
+
+	/**
+	 * @return true if the library keeps its books sorted by title, author and
+	 *         year
+	 */
+	public boolean isSortIndexed() {
+		return titleIndex != null;
+	}
+
+	/**
+	 * When sortIndexed is true, the library keeps its books sorted by title,
+	 * author and year, and updates these orders when a book is added or
+	 * removed with addBook or removeBook, which then find the shelf of a book
+	 * without going through the shelves. The sorts only read the orders.
+	 * Books of the same title or author keep the order of the shelves, books
+	 * of the same year the reverse order, as without index: the indexes take
+	 * the new order of the shelves when the books are reshelved.
+	 * 
+	 * The books must not be modified, nor added or removed through the lists
+	 * of the shelves, while the library is sort indexed.
+	 * 
+	 * @param sortIndexed
+	 */
+	public void setSortIndexed(boolean sortIndexed) {
+		if (sortIndexed == isSortIndexed())
+			return;
+		if (sortIndexed) {
+			// the books are added to the new indexes by rebuildIndexes
+			titleIndex = new SortIndex<>(Book::getTitleSortKey, SortKeys.ORDER);
+			authorIndex = new SortIndex<>(book -> book.getAuthor().getLastNameSortKey(), SortKeys.ORDER);
+			yearIndex = new SortIndex<>(Book::getYear, Comparator.<Integer> naturalOrder());
+			indexes.add(titleIndex);
+			indexes.add(authorIndex);
+			indexes.add(yearIndex);
+			shelfOf = new IdentityHashMap<>();
+			rebuildIndexes();
+		} else {
+			indexes.remove(titleIndex);
+			indexes.remove(authorIndex);
+			indexes.remove(yearIndex);
+			titleIndex = null;
+			authorIndex = null;
+			yearIndex = null;
+			shelfOf = null;
+		}
+	}
+
+	/**
+	 * @return the index of the year queries, built the first time, and again
+	 *         if anything of the model changed since, but adding or removing
+	 *         books
+	 */
+	private SortIndex<Integer> getYearQueryIndex() {
+		if (yearQueryIndex == null) {
+			yearQueryIndex = new SortIndex<>(Book::getYear, Comparator.<Integer> naturalOrder());
+			indexes.add(yearQueryIndex);
+		} else if (isYearQueryIndexFresh()) {
+			return yearQueryIndex;
+		}
+		yearQueryIndex.clear();
+		if (shelves != null) {
+			for (Book book : getViewOfAllTheBooks()) {
+				yearQueryIndex.add(book);
+				book.watchYear();
+			}
+		}
+		yearQueryStamp = Versions.current();
+		yearQueryVersion = version;
+		return yearQueryIndex;
+	}
+
+	/**
+	 * @return true if the index of the year queries is up to date
+	 */
+	private boolean isYearQueryIndexFresh() {
+		return yearQueryIndex != null && yearQueryStamp == Versions.current() && yearQueryVersion == version;
+	}
+
+	/**
+	 * Return the books published from a year to another, both included. The
+	 * first call indexes the books by year; the index is then kept up to date
+	 * when books are added or removed, and built again when the year of one of
+	 * its books changed, or the library was modified otherwise. This index
+	 * only serves the year queries: the sorts are the same whether there are
+	 * queries or not.
+	 * 
+	 * @param fromYear
+	 * @param toYear
+	 * @return the books of these years, sorted by year, books of the same
+	 *         year in the order of the shelves
+	 */
+	public List<Book> booksBetween(int fromYear, int toYear) {
+		return getYearQueryIndex().between(fromYear, toYear);
+	}
+
+	/**
+	 * Count the books published from a year to another, both included,
+	 * without going through the books (see booksBetween).
+	 * 
+	 * @param fromYear
+	 * @param toYear
+	 * @return the number of books of these years
+	 */
+	public int countBetween(int fromYear, int toYear) {
+		return getYearQueryIndex().countBetween(fromYear, toYear);
+	}
+
+	/**
+	 * Count the books of each decade which has books (see booksBetween).
+	 * 
+	 * @return the number of books by first year of decade (1990 for the
+	 *         years 1990 to 1999, -10 for -10 to -1), in the order of the
+	 *         decades
+	 */
+	public SortedMap<Integer, Integer> countByDecade() {
+		SortedMap<Integer, Integer> decades = new TreeMap<>();
+		for (Map.Entry<Integer, Integer> year : getYearQueryIndex().counts().entrySet())
+			decades.merge(Math.floorDiv(year.getKey(), 10) * 10, year.getValue(), Integer::sum);
+		return decades;
+	}
+
+	/**
+	 * Add the book at the end of the last shelf, or on a new shelf if the
+	 * last one is full.
+	 * 
+	 * @param book
+	 */
+	public void addBook(Book book) {
+		if (shelves == null)
+			shelves = new ArrayList<>();
+		Shelf last = shelves.isEmpty() ? null : shelves.get(shelves.size() - 1);
+		if (last == null || last.getBooks().size() >= nbBooksPerShelf) {
+			last = new Shelf(new ArrayList<Book>());
+			shelves.add(last);
+		}
+		boolean yearQueriesFresh = isYearQueryIndexFresh();
+		last.getBooks().add(book);
+		last.touch();
+		if (shelfOf != null)
+			shelfOf.put(book, last);
+		version++;
+		for (LibraryIndex index : indexes)
+			index.add(book);
+		if (yearQueryIndex != null)
+			book.watchYear();
+		if (yearQueriesFresh)
+			yearQueryVersion = version;
+	}
+
+	/**
+	 * Remove the book from its shelf, and the shelf if it becomes empty.
+	 * 
+	 * @param book
+	 * @return true if the book was in the library
+	 */
+	public boolean removeBook(Book book) {
+		if (shelves == null)
+			return false;
+		if (shelfOf != null) {
+			Shelf shelf = shelfOf.remove(book);
+			if (shelf == null)
+				return false;
+			removeFrom(shelf, book);
+			return true;
+		}
+		for (Shelf shelf : shelves) {
+			for (Book onShelf : shelf.getBooks()) {
+				if (onShelf == book) {
+					removeFrom(shelf, book);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove a book from a shelf which holds it, and the shelf if it becomes
+	 * empty
+	 */
+	private void removeFrom(Shelf shelf, Book book) {
+		boolean yearQueriesFresh = isYearQueryIndexFresh();
+		List<Book> books = shelf.getBooks();
+		for (int indexBook = 0; indexBook < books.size(); indexBook++) {
+			if (books.get(indexBook) == book) {
+				books.remove(indexBook);
+				break;
+			}
+		}
+		shelf.touch();
+		if (books.isEmpty()) {
+			for (int indexShelf = 0; indexShelf < shelves.size(); indexShelf++) {
+				if (shelves.get(indexShelf) == shelf) {
+					shelves.remove(indexShelf);
+					break;
+				}
+			}
+		}
+		version++;
+		for (LibraryIndex index : indexes)
+			index.remove(book);
+		if (yearQueriesFresh)
+			yearQueryVersion = version;
+	}
+
+	/**
+	 * Put the books of the library back on the shelves in the given order,
+	 * for instance the order returned by a sort. The search and identifier
+	 * indexes are kept, since the books are the same; the sort and year
+	 * indexes only take the new order of the books of a same key, in one pass
+	 * (see SortIndex.reorder).
+	 * 
+	 * @param books
+	 *            all the books of the library
+	 */
+	public void reshelve(List<Book> books) {
+		boolean yearQueriesFresh = isYearQueryIndexFresh();
+		this.shelves = createLibrary(books, nbBooksPerShelf);
+		this.version++;
+		for (SortIndex<?> index : Arrays.asList(titleIndex, authorIndex, yearIndex)) {
+			if (index != null)
+				index.reorder(books);
+		}
+		if (yearQueriesFresh) {
+			yearQueryIndex.reorder(books);
+			yearQueryVersion = version;
+		}
+		indexShelves();
+	}
+
+	/**
+	 * Getter of the version stamp of the library. It changes with the setters
+	 * and each change of the shelves (adding, removing or reshelving books),
+	 * not when a shelf or a book is modified on its own.
+	 * 
+	 * @return the version stamp of the library
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Search the books by the words of their title and of the names of their
+	 * author, without case nor accents. The last word of the query may be
+	 * incomplete: "hugo mis" finds "Les Misérables" by Victor Hugo.
+	 * 
+	 * The first search indexes the books; the index is then kept up to date
+	 * when books are added or removed. The titles and authors must not be
+	 * modified once indexed.
+	 * 
+	 * @param query
+	 * @return the books having all the words of the query, in the order they
+	 *         were indexed
+	 */
+	public List<Book> search(String query) {
+		if (searchIndex == null) {
+			searchIndex = new BookSearchIndex();
+			indexes.add(searchIndex);
+			if (shelves != null) {
+				for (Book book : getViewOfAllTheBooks())
+					searchIndex.add(book);
+			}
+		}
+		return searchIndex.search(query);
+	}
+
+	/**
+	 * Tell whether a book found by search is the one the query names, and not
+	 * only a book having its words or words beginning with its last word: the
+	 * query has all the words of the title, and possibly of the names of the
+	 * author, each one complete.
+	 * 
+	 * @param book
+	 * @param query
+	 * @return true if the query names the book
+	 */
+	public static boolean matchesExactly(Book book, String query) {
+		return BookSearchIndex.matchesExactly(book, query);
+	}
+
+	/**
+	 * Find a book by its identifier (see Book.getId). The first call indexes
+	 * the books; the index is then kept up to date when books are added or
+	 * removed.
+	 * 
+	 * @param id
+	 * @return the book of this identifier, or null if it is not in the
+	 *         library
+	 */
+	public Book getBook(long id) {
+		if (idIndex == null) {
+			idIndex = new IdIndex();
+			indexes.add(idIndex);
+			if (shelves != null) {
+				for (Book book : getViewOfAllTheBooks())
+					idIndex.add(book);
+			}
+		}
+		return idIndex.get(id);
+	}
+
+	/**
+	 * Index again all the books of the library
+	 */
+	private void rebuildIndexes() {
+		for (LibraryIndex index : indexes)
+			index.clear();
+		if (shelves != null) {
+			for (Book book : getViewOfAllTheBooks())
+				for (LibraryIndex index : indexes)
+					index.add(book);
+		}
+		indexShelves();
+	}
+
+	/**
+	 * Note again the shelf of each book, if the library is sort indexed
+	 */
+	private void indexShelves() {
+		if (shelfOf == null)
+			return;
+		shelfOf.clear();
+		if (shelves != null) {
+			for (Shelf shelf : shelves)
+				for (Book book : shelf.getBooks())
+					shelfOf.put(book, shelf);
+		}
 	}
 
 	/**
@@ -93,15 +539,9 @@ public class Library {
 	 */
 	public static List<Shelf> createLibrary(List<Book> books, int nbBooksPerShelf) {
 		List<Shelf> newShelves = new ArrayList<>();
-		List<Book> list = new ArrayList<>();
-		for (int index = 0; index < books.size(); index++) {
-			list.add(books.get(index));
-			if ((index + 1) % nbBooksPerShelf == 0 || index + 1 == books.size()) {
-				newShelves.add(new Shelf(list));
-				list = new ArrayList<Book>();
-			}
-
-		}
+		ShelfAssembler assembler = new ShelfAssembler(nbBooksPerShelf, newShelves::add);
+		books.forEach(assembler);
+		assembler.finish();
 		return newShelves;
 	}
 
@@ -127,83 +567,156 @@ public class Library {
 	/**
 	 * Return the list of books sorted according to the boolean rising. if
 	 * rising is true, then the first Book in the returned list is the older.
+	 * Books of the same year come in the reverse order of the library.
 	 * 
 	 * @param toSort
 	 * @param rising
 	 * @return
 	 */
 	public List<Book> sortByYear(boolean rising) {
-		List<Book> toSort = this.getListOfAllTheBooks();
-		List<Book> sortedBooks = new ArrayList<Book>();
-		for (Book book : toSort) {
-			if (sortedBooks.size() == 0)
-				sortedBooks.add(book);
-			else {
-				int size = sortedBooks.size();
-				boolean alreadyAdded = false;
-				for (int index = 0; index <= size; index++) {
-					if (!alreadyAdded) {
-						if (index != size) {
-							Book bookToCompare = sortedBooks.get(index);
-							if (rising) {
-								if (book.compareYear(bookToCompare)) {
-									sortedBooks.add(index, book);
-									alreadyAdded = true;
-								}
-							} else {
-								if (bookToCompare.compareYear(book)) {
-									sortedBooks.add(index, book);
-									alreadyAdded = true;
-								}
-							}
-						} else {
-							sortedBooks.add(book);
-							alreadyAdded = true;
-						}
-					}
-				}
-			}
-		}
-		return sortedBooks;
+		if (yearIndex != null)
+			return yearIndex.sorted(rising, true);
+		return YearSort.sort(this.getViewOfAllTheBooks(), rising);
+	}
+
+	/**
+	 * Return the k oldest books, in the order of sortByYear(true), without
+	 * sorting all the books.
+	 * 
+	 * @param k
+	 * @return the first k books of sortByYear(true)
+	 */
+	public List<Book> oldest(int k) {
+		if (yearIndex != null)
+			return yearIndex.first(k, true, true);
+		return TopK.select(this.getViewOfAllTheBooks(), k, Comparator.comparingInt(Book::getYear), true);
+	}
+
+	/**
+	 * Return the k newest books, in the order of sortByYear(false), without
+	 * sorting all the books.
+	 * 
+	 * @param k
+	 * @return the first k books of sortByYear(false)
+	 */
+	public List<Book> newest(int k) {
+		if (yearIndex != null)
+			return yearIndex.first(k, false, true);
+		return TopK.select(this.getViewOfAllTheBooks(), k, Comparator.comparingInt(Book::getYear).reversed(), true);
+	}
+
+	/**
+	 * Return the k first books by title, in the order of sortByTitle(),
+	 * without sorting all the books.
+	 * 
+	 * @param k
+	 * @return the first k books of sortByTitle()
+	 */
+	public List<Book> firstByTitle(int k) {
+		if (titleIndex != null)
+			return titleIndex.first(k, true, false);
+		return TopK.select(this.getViewOfAllTheBooks(), k, new BookCompareByTitle(), false);
 	}
 
 	/**
-	 * Return the list of books sorted by the title (alphabetical order).
+	 * Return the list of books sorted by the title (French alphabetical order,
+	 * see SortKeys).
 	 * 
 	 * @param toSort
 	 * @return the list of books sorted
 	 */
 	public List<Book> sortByTitle() {
-		List<Book> toSort = this.getListOfAllTheBooks();
+		if (titleIndex != null)
+			return titleIndex.sorted(true, false);
+		List<Book> books = this.getViewOfAllTheBooks();
+		if (isParallelSortOf(books))
+			return ParallelSort.sort(books, Book::getTitleSortKey, SortKeys.ORDER);
+		List<Book> toSort = new ArrayList<>(books);
 		Collections.sort(toSort, new BookCompareByTitle());
 		return toSort;
 	}
 
 	/**
 	 * Return the list of books sorted by the last name of their author
-	 * (alphabetical order).
+	 * (French alphabetical order, see SortKeys).
 	 * 
 	 * @param toSort
 	 * @return the list of books sorted
 	 */
 	public List<Book> sortByAuthor() {
-		List<Book> toSort = this.getListOfAllTheBooks();
+		if (authorIndex != null)
+			return authorIndex.sorted(true, false);
+		List<Book> books = this.getViewOfAllTheBooks();
+		if (isParallelSortOf(books))
+			return ParallelSort.sort(books, book -> book.getAuthor().getLastNameSortKey(), SortKeys.ORDER);
+		List<Book> toSort = new ArrayList<>(books);
 		Collections.sort(toSort, new BookCompareByAuthor());
 		return toSort;
 	}
 
+	/**
+	 * Return the list of books sorted by several criteria (see MultiKeySort).
+	 * When the library is sort indexed, the books come in the order of the
+	 * index of the first criterion, and only the books equal by it are sorted
+	 * by the next criteria.
+	 * 
+	 * @param sort
+	 * @return the list of books sorted
+	 */
+	public List<Book> sortBy(MultiKeySort sort) {
+		SortIndex<?> index = getSortIndex(sort.getFirstCriterion());
+		if (index == null)
+			return sort.sort(this.getViewOfAllTheBooks());
+		MultiKeySort rest = sort.rest();
+		List<Book> sortedBooks = new ArrayList<>();
+		for (List<Book> group : index.groups(sort.isFirstAscending()))
+			sortedBooks.addAll(rest == null || group.size() == 1 ? group : rest.sort(group));
+		return sortedBooks;
+	}
+
+	/**
+	 * @param criterion
+	 * @return the sort index of the criterion, null if the library is not
+	 *         sort indexed or has no index of this criterion
+	 */
+	private SortIndex<?> getSortIndex(SortCriterion criterion) {
+		switch (criterion) {
+		case AUTHOR:
+			return authorIndex;
+		case TITLE:
+			return titleIndex;
+		case YEAR:
+			return yearIndex;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @param books
+	 * @return true if the books are to be sorted in parallel
+	 */
+	private boolean isParallelSortOf(List<Book> books) {
+		return parallelSort && books.size() >= parallelSortThreshold;
+	}
+
 	/***
 	 * Return the list of all the books of the library
 	 * @return the list of all the books
 	 */
 	public List<Book> getListOfAllTheBooks() {
-		List<Book> result = new ArrayList<>();
-		for (Shelf shelf : shelves) {
-			for (Book book : this.getShelves().get(shelves.indexOf(shelf)).getBooks()) {
-				result.add(book);
-			}
-		}
-		return result;
+		return new ArrayList<>(getViewOfAllTheBooks());
+	}
+
+	/***
+	 * Return a read-only view of all the books of the library, shelf after
+	 * shelf, without copying them. Its spliterator is sized, so that the books
+	 * can be streamed in parallel.
+	 * The view must not be used after books or shelves are added or removed.
+	 * @return the view of all the books
+	 */
+	public List<Book> getViewOfAllTheBooks() {
+		return new LibraryBooksView(shelves);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * LibraryBooksView is a read-only list of all the books of a list of shelves,
+ * without copying them. A book is reached by its global index, counted from
+ * the first book of the first shelf.
+ *
+ * The view is built over the shelves as they are when it is created: adding or
+ * removing books or shelves afterwards requires a new view.
+ */
+final class LibraryBooksView extends AbstractList<Book> implements RandomAccess {
+
+	/**
+	 * The shelves of the library
+	 */
+	private final Shelf[] shelves;
+
+	/**
+	 * offsets[i] is the global index of the first book of the shelf i, the
+	 * last one is the number of books
+	 */
+	private final int[] offsets;
+
+	LibraryBooksView(List<Shelf> shelves) {
+		this.shelves = shelves.toArray(new Shelf[shelves.size()]);
+		this.offsets = new int[this.shelves.length + 1];
+		for (int index = 0; index < this.shelves.length; index++)
+			offsets[index + 1] = offsets[index] + this.shelves[index].getBooks().size();
+	}
+
+	@Override
+	public Book get(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		int shelf = shelfOf(index);
+		return shelves[shelf].getBooks().get(index - offsets[shelf]);
+	}
+
+	@Override
+	public int size() {
+		return offsets[shelves.length];
+	}
+
+	@Override
+	public Iterator<Book> iterator() {
+		return Spliterators.iterator(spliterator());
+	}
+
+	@Override
+	public Spliterator<Book> spliterator() {
+		return new BooksSpliterator(0, size());
+	}
+
+	/**
+	 * @param index
+	 *            a global index
+	 * @return the index of the shelf containing the book at this index
+	 */
+	private int shelfOf(int index) {
+		int found = Arrays.binarySearch(offsets, index);
+		if (found < 0)
+			return -found - 2;
+		// skip the empty shelves starting at the same offset
+		while (offsets[found + 1] == index)
+			found++;
+		return found;
+	}
+
+	/**
+	 * A spliterator over a range of global indexes, which walks the shelves
+	 * instead of searching for each book.
+	 */
+	private final class BooksSpliterator implements Spliterator<Book> {
+
+		private int shelf;
+		private int index;
+		private final int end;
+
+		BooksSpliterator(int start, int end) {
+			this.index = start;
+			this.end = end;
+			this.shelf = start < end ? shelfOf(start) : 0;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Book> action) {
+			if (index >= end)
+				return false;
+			while (index >= offsets[shelf + 1])
+				shelf++;
+			action.accept(shelves[shelf].getBooks().get(index - offsets[shelf]));
+			index++;
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super Book> action) {
+			while (index < end) {
+				while (index >= offsets[shelf + 1])
+					shelf++;
+				List<Book> books = shelves[shelf].getBooks();
+				int last = Math.min(end, offsets[shelf + 1]);
+				for (; index < last; index++)
+					action.accept(books.get(index - offsets[shelf]));
+			}
+		}
+
+		@Override
+		public Spliterator<Book> trySplit() {
+			int middle = (index + end) >>> 1;
+			if (middle <= index)
+				return null;
+			Spliterator<Book> prefix = new BooksSpliterator(index, middle);
+			index = middle;
+			shelf = shelfOf(middle);
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+	}
+
+}
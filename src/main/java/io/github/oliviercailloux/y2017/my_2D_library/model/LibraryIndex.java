@@ -0,0 +1,28 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+/**
+ * LibraryIndex is an index over the books of a library, kept up to date by
+ * the library when a book is added or removed.
+ */
+interface LibraryIndex {
+
+	/**
+	 * Index a book added to the library
+	 *
+	 * @param book
+	 */
+	void add(Book book);
+
+	/**
+	 * Forget a book removed from the library
+	 *
+	 * @param book
+	 */
+	void remove(Book book);
+
+	/**
+	 * Forget all the books
+	 */
+	void clear();
+
+}
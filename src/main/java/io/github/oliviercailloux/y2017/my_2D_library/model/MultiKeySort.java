@@ -0,0 +1,253 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * MultiKeySort sorts books by several criteria, each one ascending or
+ * descending, the next criterion deciding between the books equal by the
+ * previous ones. For instance:
+ *
+ * <pre>
+ * MultiKeySort.by(SortCriterion.AUTHOR, true).then(SortCriterion.YEAR, false).then(SortCriterion.TITLE, true)
+ * </pre>
+ *
+ * Before sorting, each criterion of each book is replaced by its rank among
+ * the values of the books, and the ranks of a book are packed with its index
+ * into a long (or an array of bytes if they need more than 63 bits). The sort
+ * then compares primitives instead of calling comparators, and is stable.
+ */
+public final class MultiKeySort {
+
+	/**
+	 * The most bits that a packed long key can use, keeping it positive
+	 */
+	private static final int LONG_KEY_BITS = 63;
+
+	private final List<SortCriterion> criteria;
+	private final List<Boolean> ascendings;
+
+	private MultiKeySort(List<SortCriterion> criteria, List<Boolean> ascendings) {
+		this.criteria = criteria;
+		this.ascendings = ascendings;
+	}
+
+	/**
+	 * @param criterion
+	 *            the first criterion
+	 * @param ascending
+	 *            true to begin with the smallest value
+	 * @return a sort by this criterion
+	 */
+	public static MultiKeySort by(SortCriterion criterion, boolean ascending) {
+		return new MultiKeySort(Collections.singletonList(criterion), Collections.singletonList(ascending));
+	}
+
+	/**
+	 * @param criterion
+	 *            the criterion for the books equal by the previous ones
+	 * @param ascending
+	 *            true to begin with the smallest value
+	 * @return a new sort by the criteria of this one, then this criterion
+	 */
+	public MultiKeySort then(SortCriterion criterion, boolean ascending) {
+		List<SortCriterion> newCriteria = new ArrayList<>(criteria);
+		List<Boolean> newAscendings = new ArrayList<>(ascendings);
+		newCriteria.add(criterion);
+		newAscendings.add(ascending);
+		return new MultiKeySort(Collections.unmodifiableList(newCriteria),
+				Collections.unmodifiableList(newAscendings));
+	}
+
+	/**
+	 * @return the first criterion of this sort
+	 */
+	SortCriterion getFirstCriterion() {
+		return criteria.get(0);
+	}
+
+	/**
+	 * @return true if the first criterion is ascending
+	 */
+	boolean isFirstAscending() {
+		return ascendings.get(0);
+	}
+
+	/**
+	 * @return the sort by the criteria after the first one, null if there are
+	 *         none
+	 */
+	MultiKeySort rest() {
+		if (criteria.size() == 1)
+			return null;
+		return new MultiKeySort(criteria.subList(1, criteria.size()), ascendings.subList(1, ascendings.size()));
+	}
+
+	/**
+	 * @return the order of this sort as a comparator, for the books that
+	 *         cannot be sorted all at once
+	 */
+	public Comparator<Book> comparator() {
+		Comparator<Book> comparator = null;
+		for (int index = 0; index < criteria.size(); index++) {
+			Comparator<Book> next = criteria.get(index).comparator();
+			if (!ascendings.get(index))
+				next = next.reversed();
+			comparator = comparator == null ? next : comparator.thenComparing(next);
+		}
+		return comparator;
+	}
+
+	/**
+	 * Return a new list of the books sorted. Books equal by all the criteria
+	 * keep their order.
+	 *
+	 * @param books
+	 *            the books to sort, left unchanged
+	 * @return the list of books sorted
+	 */
+	public List<Book> sort(List<Book> books) {
+		return sort(books, LONG_KEY_BITS);
+	}
+
+	/**
+	 * @param books
+	 * @param maxLongBits
+	 *            the most bits of a key packed into a long
+	 * @return the list of books sorted
+	 */
+	List<Book> sort(List<Book> books, int maxLongBits) {
+		Book[] source = books.toArray(new Book[books.size()]);
+		int size = source.length;
+		int[][] ranks = new int[criteria.size()][];
+		int[] bits = new int[criteria.size()];
+		int totalBits = bitsFor(size);
+		for (int index = 0; index < ranks.length; index++) {
+			ranks[index] = ranks(source, criteria.get(index), ascendings.get(index));
+			bits[index] = bitsFor(max(ranks[index]) + 1);
+			totalBits += bits[index];
+		}
+
+		int[] order = totalBits <= maxLongBits ? sortLongKeys(ranks, bits, size) : sortByteKeys(ranks, size);
+		List<Book> sortedBooks = new ArrayList<>(size);
+		for (int index : order)
+			sortedBooks.add(source[index]);
+		return sortedBooks;
+	}
+
+	/**
+	 * Sort the books with one long per book: the ranks, then the index of the
+	 * book in the lowest bits.
+	 */
+	private static int[] sortLongKeys(int[][] ranks, int[] bits, int size) {
+		int indexBits = bitsFor(size);
+		long[] keys = new long[size];
+		for (int book = 0; book < size; book++) {
+			long key = 0;
+			for (int criterion = 0; criterion < ranks.length; criterion++)
+				key = key << bits[criterion] | ranks[criterion][book];
+			keys[book] = key << indexBits | book;
+		}
+		Arrays.sort(keys);
+		long indexMask = (1L << indexBits) - 1;
+		int[] order = new int[size];
+		for (int index = 0; index < size; index++)
+			order[index] = (int) (keys[index] & indexMask);
+		return order;
+	}
+
+	/**
+	 * Sort the books with one array of bytes per book: four bytes per rank,
+	 * then four bytes for the index of the book.
+	 */
+	private static int[] sortByteKeys(int[][] ranks, int size) {
+		byte[][] keys = new byte[size][];
+		for (int book = 0; book < size; book++) {
+			byte[] key = new byte[4 * (ranks.length + 1)];
+			for (int criterion = 0; criterion < ranks.length; criterion++)
+				putInt(key, 4 * criterion, ranks[criterion][book]);
+			putInt(key, 4 * ranks.length, book);
+			keys[book] = key;
+		}
+		Arrays.sort(keys, SortKeys.ORDER);
+		int[] order = new int[size];
+		for (int index = 0; index < size; index++)
+			order[index] = getInt(keys[index], 4 * ranks.length);
+		return order;
+	}
+
+	/**
+	 * @return the rank of each book among the distinct values of the
+	 *         criterion, from 0
+	 */
+	private static int[] ranks(Book[] books, SortCriterion criterion, boolean ascending) {
+		int size = books.length;
+		int[] ranks = new int[size];
+		int nbValues;
+		if (criterion.isName()) {
+			byte[][] keys = new byte[size][];
+			for (int index = 0; index < size; index++)
+				keys[index] = criterion.sortKeyOf(books[index]);
+			byte[][] values = keys.clone();
+			Arrays.sort(values, SortKeys.ORDER);
+			nbValues = 0;
+			for (byte[] value : values)
+				if (nbValues == 0 || SortKeys.compare(values[nbValues - 1], value) != 0)
+					values[nbValues++] = value;
+			for (int index = 0; index < size; index++)
+				ranks[index] = Arrays.binarySearch(values, 0, nbValues, keys[index], SortKeys.ORDER);
+		} else {
+			int[] keys = new int[size];
+			for (int index = 0; index < size; index++)
+				keys[index] = books[index].getYear();
+			int[] values = keys.clone();
+			Arrays.sort(values);
+			nbValues = 0;
+			for (int value : values)
+				if (nbValues == 0 || values[nbValues - 1] != value)
+					values[nbValues++] = value;
+			for (int index = 0; index < size; index++)
+				ranks[index] = Arrays.binarySearch(values, 0, nbValues, keys[index]);
+		}
+		if (!ascending)
+			for (int index = 0; index < size; index++)
+				ranks[index] = nbValues - 1 - ranks[index];
+		return ranks;
+	}
+
+	/**
+	 * @return the number of bits needed to write the numbers from 0 to
+	 *         count - 1
+	 */
+	private static int bitsFor(int count) {
+		return count <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(count - 1);
+	}
+
+	private static int max(int[] values) {
+		int max = -1;
+		for (int value : values)
+			max = Math.max(max, value);
+		return max;
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8
+				| bytes[offset + 3] & 0xFF;
+	}
+
+	@Override
+	public String toString() {
+		return "MultiKeySort [criteria=" + criteria + ", ascendings=" + ascendings + "]";
+	}
+
+}
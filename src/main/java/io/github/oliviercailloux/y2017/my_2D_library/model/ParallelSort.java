@@ -0,0 +1,60 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * ParallelSort sorts books on the common fork/join pool. The key of each book
+ * is extracted once before the sort, which then only compares keys.
+ *
+ * The sort is stable: books with equal keys keep their order.
+ */
+final class ParallelSort {
+
+	private ParallelSort() {
+	}
+
+	/**
+	 * A book and its sort key
+	 */
+	private static final class KeyedBook<K> {
+		private final K key;
+		private final Book book;
+
+		KeyedBook(K key, Book book) {
+			this.key = key;
+			this.book = book;
+		}
+	}
+
+	/**
+	 * Return a new list of the books sorted by their key.
+	 *
+	 * @param books
+	 *            the books to sort, left unchanged
+	 * @param keyOf
+	 *            how to get the key of a book
+	 * @param comparator
+	 *            the order of the keys
+	 * @return the list of books sorted
+	 */
+	static <K> List<Book> sort(List<Book> books, Function<Book, K> keyOf, Comparator<? super K> comparator) {
+		@SuppressWarnings("unchecked")
+		KeyedBook<K>[] keyed = (KeyedBook<K>[]) new KeyedBook<?>[books.size()];
+		int index = 0;
+		for (Book book : books)
+			keyed[index++] = new KeyedBook<>(keyOf.apply(book), book);
+
+		// Arrays.parallelSort on objects is a stable merge sort
+		Arrays.parallelSort(keyed, (k1, k2) -> comparator.compare(k1.key, k2.key));
+
+		List<Book> sortedBooks = new ArrayList<>(keyed.length);
+		for (KeyedBook<K> keyedBook : keyed)
+			sortedBooks.add(keyedBook.book);
+		return sortedBooks;
+	}
+
+}
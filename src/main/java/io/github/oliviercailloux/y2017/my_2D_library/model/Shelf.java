@@ -24,6 +24,11 @@ public class Shelf {
 	 * The height of the shelf
 	 */
 	private double heightSize; 
+
+	/**
+	 * The version stamp, the number of changes of the shelf
+	 */
+	private long version;
 	
 	/**
 	 * Shelf constructor with a list of books
@@ -47,6 +52,7 @@ public class Shelf {
 	 */
 	public void setBooks(List<Book> books) {
 		this.books = books;
+		this.version++;
 	}
 	
 	/**
@@ -62,6 +68,24 @@ public class Shelf {
 	 */
 	public void setHeightSize(double heightSize) {
 		this.heightSize = heightSize;
+		this.version++;
+	}
+
+	/**
+	 * Getter of the version stamp of the shelf. It changes with the setters
+	 * and when the library adds or removes a book, not when a book of the
+	 * shelf is modified (see Book.getVersion).
+	 * @return the version stamp of the shelf
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Renew the version stamp after a change of the list of books
+	 */
+	void touch() {
+		this.version++;
 	}
 
 	/* (non-Javadoc)
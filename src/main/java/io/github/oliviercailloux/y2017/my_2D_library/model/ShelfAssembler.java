@@ -0,0 +1,56 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * ShelfAssembler puts the books it is given, one at a time, on shelves of a
+ * given number of books, and hands over each shelf as soon as it is full. The
+ * last shelf, which may not be full, is handed over by {@link #finish()}.
+ *
+ * The books can thus be put on shelves while they are read or merged, without
+ * the whole list of books in memory.
+ */
+public class ShelfAssembler implements Consumer<Book> {
+
+	private final int nbBooksPerShelf;
+	private final Consumer<Shelf> shelves;
+	/**
+	 * The books of the shelf being filled
+	 */
+	private List<Book> books = new ArrayList<>();
+
+	/**
+	 * @param nbBooksPerShelf
+	 *            the number of books of a full shelf
+	 * @param shelves
+	 *            receives each shelf once it is full
+	 */
+	public ShelfAssembler(int nbBooksPerShelf, Consumer<Shelf> shelves) {
+		if (nbBooksPerShelf <= 0)
+			throw new IllegalArgumentException("Number of books per shelf: " + nbBooksPerShelf);
+		this.nbBooksPerShelf = nbBooksPerShelf;
+		this.shelves = shelves;
+	}
+
+	@Override
+	public void accept(Book book) {
+		books.add(book);
+		if (books.size() == nbBooksPerShelf) {
+			shelves.accept(new Shelf(books));
+			books = new ArrayList<>();
+		}
+	}
+
+	/**
+	 * Hand over the last shelf if it has books.
+	 */
+	public void finish() {
+		if (!books.isEmpty()) {
+			shelves.accept(new Shelf(books));
+			books = new ArrayList<>();
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.Comparator;
+
+/**
+ * SortCriterion is an attribute of a book that books can be sorted by. The
+ * names are compared with their sort keys (see SortKeys).
+ */
+public enum SortCriterion {
+
+	/**
+	 * The last name of the author
+	 */
+	AUTHOR(Comparator.comparing(book -> book.getAuthor().getLastNameSortKey(), SortKeys.ORDER)),
+	/**
+	 * The first name of the author
+	 */
+	FIRST_NAME(Comparator.comparing(book -> book.getAuthor().getFirstNameSortKey(), SortKeys.ORDER)),
+	/**
+	 * The title
+	 */
+	TITLE(Comparator.comparing(Book::getTitleSortKey, SortKeys.ORDER)),
+	/**
+	 * The year
+	 */
+	YEAR(Comparator.comparingInt(Book::getYear));
+
+	private final Comparator<Book> comparator;
+
+	private SortCriterion(Comparator<Book> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * @return the ascending order of the books by this criterion
+	 */
+	public Comparator<Book> comparator() {
+		return comparator;
+	}
+
+	/**
+	 * @return true if the criterion is a string
+	 */
+	boolean isName() {
+		return this != YEAR;
+	}
+
+	/**
+	 * @param book
+	 * @return the sort key of the book by this criterion, for a name
+	 */
+	byte[] sortKeyOf(Book book) {
+		switch (this) {
+		case AUTHOR:
+			return book.getAuthor().getLastNameSortKey();
+		case FIRST_NAME:
+			return book.getAuthor().getFirstNameSortKey();
+		case TITLE:
+			return book.getTitleSortKey();
+		default:
+			throw new IllegalStateException(this + " is not a name");
+		}
+	}
+
+}
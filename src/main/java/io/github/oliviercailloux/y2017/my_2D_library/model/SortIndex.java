@@ -0,0 +1,240 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * SortIndex keeps the books of a library sorted by a key. The books with the
+ * same key are kept together in a bucket, in the order of their position on
+ * the shelves, so that adding a book costs a search in the tree of the keys,
+ * removing one a binary search in its bucket, and reading the whole order is
+ * a linear walk. When the library puts its books in another order on the
+ * shelves, the buckets are filled again in this order (see reorder), without
+ * searching the tree.
+ *
+ * The key of a book must not change while the book is indexed.
+ *
+ * @param <K>
+ *            the type of the key
+ */
+final class SortIndex<K> implements LibraryIndex {
+
+	/**
+	 * How to get the key of a book
+	 */
+	private final Function<Book, K> keyOf;
+
+	/**
+	 * The books, by key, then by position
+	 */
+	private final TreeMap<K, List<Book>> buckets;
+
+	/**
+	 * The key, the bucket and the position of each book
+	 */
+	private final Map<Book, Entry<K>> entries = new IdentityHashMap<>();
+
+	/**
+	 * The position of the next book added, after all the others
+	 */
+	private long sequence;
+
+	SortIndex(Function<Book, K> keyOf, Comparator<? super K> comparator) {
+		this.keyOf = keyOf;
+		this.buckets = new TreeMap<>(comparator);
+	}
+
+	@Override
+	public void add(Book book) {
+		K key = keyOf.apply(book);
+		List<Book> bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<>(1);
+			buckets.put(key, bucket);
+		}
+		entries.put(book, new Entry<>(key, bucket, sequence++));
+		bucket.add(book);
+	}
+
+	@Override
+	public void remove(Book book) {
+		Entry<K> entry = entries.remove(book);
+		if (entry == null)
+			return;
+		List<Book> bucket = entry.bucket;
+		// the bucket is in the order of the positions
+		int low = 0;
+		int high = bucket.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			Book other = bucket.get(middle);
+			long position = other == book ? entry.position : entries.get(other).position;
+			if (position < entry.position) {
+				low = middle + 1;
+			} else if (position > entry.position) {
+				high = middle - 1;
+			} else {
+				bucket.remove(middle);
+				break;
+			}
+		}
+		if (bucket.isEmpty())
+			buckets.remove(entry.key);
+	}
+
+	/**
+	 * Take the new order of the books on the shelves, in one pass over the
+	 * books: the keys do not change, only the order of the books of a same
+	 * key.
+	 *
+	 * @param books
+	 *            all the books of the index, in the order of the shelves
+	 */
+	void reorder(List<Book> books) {
+		for (List<Book> bucket : buckets.values())
+			bucket.clear();
+		long position = 0;
+		for (Book book : books) {
+			Entry<K> entry = entries.get(book);
+			entry.position = position++;
+			entry.bucket.add(book);
+		}
+		sequence = position;
+	}
+
+	@Override
+	public void clear() {
+		buckets.clear();
+		entries.clear();
+		sequence = 0;
+	}
+
+	/**
+	 * Return the books in the order of the index.
+	 *
+	 * @param ascending
+	 *            true to begin with the smallest key
+	 * @param reversedTies
+	 *            true to return the books of a same key from the last added to
+	 *            the first added
+	 * @return the list of books sorted
+	 */
+	List<Book> sorted(boolean ascending, boolean reversedTies) {
+		List<Book> sortedBooks = new ArrayList<>(entries.size());
+		NavigableMap<K, List<Book>> map = ascending ? buckets : buckets.descendingMap();
+		for (List<Book> bucket : map.values()) {
+			if (reversedTies) {
+				for (ListIterator<Book> books = bucket.listIterator(bucket.size()); books.hasPrevious();)
+					sortedBooks.add(books.previous());
+			} else {
+				sortedBooks.addAll(bucket);
+			}
+		}
+		return sortedBooks;
+	}
+
+	/**
+	 * @param ascending
+	 *            true to begin with the smallest key
+	 * @return the books of each key, in the order of the keys, the books of a
+	 *         same key in the order they were added
+	 */
+	List<List<Book>> groups(boolean ascending) {
+		NavigableMap<K, List<Book>> map = ascending ? buckets : buckets.descendingMap();
+		List<List<Book>> groups = new ArrayList<>(map.size());
+		for (List<Book> bucket : map.values())
+			groups.add(new ArrayList<>(bucket));
+		return groups;
+	}
+
+	/**
+	 * Return the first books in the order of the index, as sorted would give
+	 * them, reading only these books.
+	 *
+	 * @param k
+	 *            the number of books
+	 * @param ascending
+	 * @param reversedTies
+	 * @return the first k books of sorted(ascending, reversedTies), or all
+	 *         of them if there are fewer
+	 */
+	List<Book> first(int k, boolean ascending, boolean reversedTies) {
+		List<Book> first = new ArrayList<>(Math.min(k, entries.size()));
+		NavigableMap<K, List<Book>> map = ascending ? buckets : buckets.descendingMap();
+		for (List<Book> bucket : map.values()) {
+			ListIterator<Book> books = bucket.listIterator(reversedTies ? bucket.size() : 0);
+			while (reversedTies ? books.hasPrevious() : books.hasNext()) {
+				if (first.size() == k)
+					return first;
+				first.add(reversedTies ? books.previous() : books.next());
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the books of the keys from from to to, both included, by key,
+	 *         the books of a same key in the order they were added
+	 */
+	List<Book> between(K from, K to) {
+		List<Book> books = new ArrayList<>();
+		for (List<Book> bucket : range(from, to).values())
+			books.addAll(bucket);
+		return books;
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the number of books of the keys from from to to, both included,
+	 *         counted bucket by bucket
+	 */
+	int countBetween(K from, K to) {
+		int count = 0;
+		for (List<Book> bucket : range(from, to).values())
+			count += bucket.size();
+		return count;
+	}
+
+	/**
+	 * @return the number of books of each key, by key
+	 */
+	NavigableMap<K, Integer> counts() {
+		NavigableMap<K, Integer> counts = new TreeMap<>(buckets.comparator());
+		for (Map.Entry<K, List<Book>> bucket : buckets.entrySet())
+			counts.put(bucket.getKey(), bucket.getValue().size());
+		return counts;
+	}
+
+	private NavigableMap<K, List<Book>> range(K from, K to) {
+		if (buckets.comparator().compare(from, to) > 0)
+			return Collections.emptyNavigableMap();
+		return buckets.subMap(from, true, to, true);
+	}
+
+	/**
+	 * The key, the bucket and the position of an indexed book
+	 */
+	private static final class Entry<K> {
+		final K key;
+		final List<Book> bucket;
+		long position;
+
+		Entry(K key, List<Book> bucket, long position) {
+			this.key = key;
+			this.bucket = bucket;
+			this.position = position;
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.text.Collator;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * SortKeys turns titles and names into sort keys: arrays of bytes whose
+ * unsigned order is the French alphabetical order, without case but with
+ * accents ("Ébène" before "ecole" before "Zola"). A key is computed once and
+ * then compared byte by byte.
+ */
+public final class SortKeys {
+
+	/**
+	 * The collator giving the order. A Collator is not thread-safe, so it is
+	 * only used under its lock.
+	 */
+	private static final Collator COLLATOR = Collator.getInstance(Locale.FRENCH);
+
+	static {
+		COLLATOR.setStrength(Collator.SECONDARY);
+	}
+
+	/**
+	 * The order of the sort keys
+	 */
+	public static final Comparator<byte[]> ORDER = SortKeys::compare;
+
+	private SortKeys() {
+	}
+
+	/**
+	 * @param value
+	 *            a title or a name, may be null
+	 * @return the sort key of the value, empty for null
+	 */
+	public static byte[] of(String value) {
+		if (value == null)
+			return new byte[0];
+		synchronized (COLLATOR) {
+			return COLLATOR.getCollationKey(value).toByteArray();
+		}
+	}
+
+	/**
+	 * Compare two sort keys as unsigned bytes.
+	 *
+	 * @param key1
+	 * @param key2
+	 * @return an int, less than 0 if key1 is before key2, more than 0 if key1
+	 *         is after key2, 0 if they are equal
+	 */
+	public static int compare(byte[] key1, byte[] key2) {
+		int length = Math.min(key1.length, key2.length);
+		for (int index = 0; index < length; index++) {
+			int difference = (key1[index] & 0xFF) - (key2[index] & 0xFF);
+			if (difference != 0)
+				return difference;
+		}
+		return key1.length - key2.length;
+	}
+
+}
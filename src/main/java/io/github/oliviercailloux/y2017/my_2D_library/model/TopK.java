@@ -0,0 +1,70 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * TopK selects the first books of an order without sorting all of them: it
+ * keeps the k best books met so far in a heap whose top is the worst of them,
+ * so that it costs O(n log k) time and O(k) memory.
+ */
+final class TopK {
+
+	private TopK() {
+	}
+
+	/**
+	 * @param books
+	 * @param k
+	 *            the number of books to select
+	 * @param order
+	 *            the order of the books
+	 * @param reversedTies
+	 *            true if the books equal by the order come from the last one
+	 *            to the first one, as in sortByYear
+	 * @return the first k books (or all the books if there are fewer) in the
+	 *         order that a sort of all the books would give
+	 */
+	static List<Book> select(List<Book> books, int k, Comparator<Book> order, boolean reversedTies) {
+		if (k < 0)
+			throw new IllegalArgumentException("k: " + k);
+		if (k == 0)
+			return new ArrayList<>();
+		Comparator<Ranked> byPosition = Comparator.comparingInt(ranked -> ranked.position);
+		Comparator<Ranked> rankedOrder = Comparator.comparing((Ranked ranked) -> ranked.book, order)
+				.thenComparing(reversedTies ? byPosition.reversed() : byPosition);
+		PriorityQueue<Ranked> heap = new PriorityQueue<>(Math.min(k, books.size()) + 1, rankedOrder.reversed());
+		int position = 0;
+		for (Book book : books) {
+			Ranked ranked = new Ranked(book, position++);
+			if (heap.size() < k) {
+				heap.add(ranked);
+			} else if (rankedOrder.compare(ranked, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(ranked);
+			}
+		}
+		List<Ranked> selected = new ArrayList<>(heap);
+		selected.sort(rankedOrder);
+		List<Book> first = new ArrayList<>(selected.size());
+		for (Ranked ranked : selected)
+			first.add(ranked.book);
+		return first;
+	}
+
+	/**
+	 * A book and its position in the list
+	 */
+	private static final class Ranked {
+		final Book book;
+		final int position;
+
+		Ranked(Book book, int position) {
+			this.book = book;
+			this.position = position;
+		}
+	}
+
+}
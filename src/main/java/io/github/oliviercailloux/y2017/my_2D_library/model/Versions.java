@@ -0,0 +1,40 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions is the clock of the changes that a library cannot follow through
+ * its own methods: the changes of the year of a book indexed for the year
+ * queries (see Library.booksBetween). {@link #current()} tells in one read
+ * whether such a year changed since a given stamp.
+ *
+ * The other changes do not touch this shared clock: each Library, Shelf,
+ * Book, Author and BookTable counts its own changes as its version stamp, so
+ * that a cache built from an object is up to date as long as the version of
+ * the object is the one read when it was built.
+ */
+public final class Versions {
+
+	private static final AtomicLong CLOCK = new AtomicLong();
+
+	private Versions() {
+	}
+
+	/**
+	 * Tell that the year of a book indexed by year changed
+	 * 
+	 * @return a new stamp, greater than all the stamps given before
+	 */
+	static long next() {
+		return CLOCK.incrementAndGet();
+	}
+
+	/**
+	 * @return the last stamp given: if it has not changed, no year of a book
+	 *         indexed by year has changed
+	 */
+	public static long current() {
+		return CLOCK.get();
+	}
+
+}
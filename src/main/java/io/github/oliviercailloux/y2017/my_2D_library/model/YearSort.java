@@ -0,0 +1,109 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * YearSort sorts books by year in linear time. It is a counting sort over the
+ * range of the years, which becomes a two pass radix sort (16 bits per pass)
+ * when the range is too wide for a single array of counters.
+ *
+ * Books with the same year are returned in the reverse order of the list to
+ * sort, as the former insertion sort of Library did, whatever the direction.
+ */
+public final class YearSort {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(YearSort.class);
+
+	/**
+	 * Number of bits of the key handled by one counting pass
+	 */
+	private static final int BITS_PER_PASS = 16;
+
+	private static final int DIGIT_MASK = (1 << BITS_PER_PASS) - 1;
+
+	private YearSort() {
+	}
+
+	/**
+	 * Return a new list of the books sorted by year. If rising is true, then
+	 * the first Book in the returned list is the older.
+	 *
+	 * @param books
+	 *            the books to sort, left unchanged
+	 * @param rising
+	 * @return the list of books sorted
+	 */
+	public static List<Book> sort(List<Book> books, boolean rising) {
+		int size = books.size();
+		Book[] source = new Book[size];
+		int[] keys = new int[size];
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		int index = 0;
+		for (Book book : books) {
+			int year = book.getYear();
+			source[index] = book;
+			keys[index] = year;
+			if (year < min)
+				min = year;
+			if (year > max)
+				max = year;
+			index++;
+		}
+
+		List<Book> sortedBooks = new ArrayList<>(size);
+		if (size == 0)
+			return sortedBooks;
+
+		// keys become unsigned offsets from the first year of the order
+		for (index = 0; index < size; index++)
+			keys[index] = rising ? keys[index] - min : max - keys[index];
+
+		// the order starts reversed so that equal years end up reversed too
+		int[] order = new int[size];
+		for (index = 0; index < size; index++)
+			order[index] = size - 1 - index;
+
+		long range = (long) max - min;
+		if (range >>> BITS_PER_PASS == 0) {
+			order = countingPass(keys, order, 0, (int) range + 1);
+		} else {
+			order = countingPass(keys, order, 0, 1 << BITS_PER_PASS);
+			order = countingPass(keys, order, BITS_PER_PASS, 1 << BITS_PER_PASS);
+		}
+
+		for (int sorted : order)
+			sortedBooks.add(source[sorted]);
+		return sortedBooks;
+	}
+
+	/**
+	 * One stable counting pass over the digit of the keys starting at shift.
+	 *
+	 * @param keys
+	 *            the key of each book, by index in the list to sort
+	 * @param order
+	 *            the indexes of the books in their current order
+	 * @param shift
+	 *            the position of the digit in the keys
+	 * @param nbBuckets
+	 *            the number of distinct values of the digit
+	 * @return the indexes of the books ordered by the digit
+	 */
+	private static int[] countingPass(int[] keys, int[] order, int shift, int nbBuckets) {
+		int[] starts = new int[nbBuckets + 1];
+		for (int index : order)
+			starts[((keys[index] >>> shift) & DIGIT_MASK) + 1]++;
+		for (int bucket = 0; bucket < nbBuckets; bucket++)
+			starts[bucket + 1] += starts[bucket];
+		int[] result = new int[order.length];
+		for (int index : order)
+			result[starts[(keys[index] >>> shift) & DIGIT_MASK]++] = index;
+		return result;
+	}
+
+}
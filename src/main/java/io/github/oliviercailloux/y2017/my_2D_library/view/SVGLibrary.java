@@ -263,7 +263,7 @@ public class SVGLibrary {
 		int shelfNumber = 1;
 		Random randomGenerator = new Random();
 		int counterBooks = library.getShelves().get(shelfNumber - 1).getBooks().size();
-		for (Book book : library.getListOfAllTheBooks()) {
+		for (Book book : library.getViewOfAllTheBooks()) {
 			Shape bookShape = null;
 			int randomWidth = idealWidth + randomGenerator.nextInt(30);
 			int randomHeightGap = randomGenerator.nextInt(50);
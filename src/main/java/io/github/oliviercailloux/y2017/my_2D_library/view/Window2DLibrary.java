@@ -12,9 +12,12 @@ import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 
@@ -35,21 +38,31 @@ import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.text.JTextComponent;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.github.oliviercailloux.y2017.my_2D_library.controller.CatalogCache;
+import io.github.oliviercailloux.y2017.my_2D_library.controller.CatalogWatcher;
 import io.github.oliviercailloux.y2017.my_2D_library.controller.ConnectionToCongressLibrary;
 import io.github.oliviercailloux.y2017.my_2D_library.controller.DataFile;
 import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
 import io.github.oliviercailloux.y2017.my_2D_library.model.Library;
+import io.github.oliviercailloux.y2017.my_2D_library.model.MultiKeySort;
+import io.github.oliviercailloux.y2017.my_2D_library.model.SortCriterion;
 
 public class Window2DLibrary extends JFrame {
 	
 	public static final Logger LOGGER = LoggerFactory.getLogger(Window2DLibrary.class);
 	private static final long serialVersionUID = 1L;
+	/**
+	 * The order of the books of a same author: by first name, year, then title
+	 */
+	private static final MultiKeySort SORT_BY_AUTHOR = MultiKeySort.by(SortCriterion.AUTHOR, true)
+			.then(SortCriterion.FIRST_NAME, true).then(SortCriterion.YEAR, true).then(SortCriterion.TITLE, true);
 	private JButton generateButton;
 	private JTextField searchTextField, firstNameTextField, lastNameTextField, titleTextField,
 			yearTextField, dimXTextField, dimYTextField;
@@ -71,7 +84,16 @@ public class Window2DLibrary extends JFrame {
 	boolean leaning = true;
 	int nbBooksPerShelf = 18;
 	DataFile dataFile = new DataFile();
+	/**
+	 * The books of the data file, read again only when the file changes
+	 */
+	CatalogCache catalog = new CatalogCache(dataFile);
 	SVGLibrary svgLibrary;
+	/**
+	 * Adds to the library shown the books appended to the data file by other
+	 * programs
+	 */
+	CatalogWatcher watcher = new CatalogWatcher(dataFile, () -> svgLibrary.getLibrary(), SwingUtilities::invokeLater);
 
 	/**
 	 * constructor of the window
@@ -86,6 +108,17 @@ public class Window2DLibrary extends JFrame {
 		this.initialise();
 		this.setVisible(true);
 		this.svgLibrary = svgLibrary2;
+		try {
+			watcher.start();
+		} catch (IOException e) {
+			LOGGER.error("The data file cannot be watched: " + e.getMessage());
+		}
+		this.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				watcher.close();
+			}
+		});
 
 	}
 
@@ -208,19 +241,24 @@ public class Window2DLibrary extends JFrame {
 	public void updateSVGLibrary() throws ParserConfigurationException {
 		generateButton.setText("Reload my library now");
 
+		// the sorts only read the indexes of the library, which is reshelved in place
+		Library library = svgLibrary.getLibrary();
+		library.setNbBooksPerShelf(nbBooksPerShelf);
 		switch (sort) {
 		case "Author":
-			svgLibrary.setLibrary(new Library(svgLibrary.getLibrary().sortByAuthor(), nbBooksPerShelf));
+			library.reshelve(library.sortBy(SORT_BY_AUTHOR));
 			break;
 		case "Title":
-			svgLibrary.setLibrary(new Library(svgLibrary.getLibrary().sortByTitle(), nbBooksPerShelf));
+			library.reshelve(library.sortByTitle());
 			break;
 		case "Year":
 			boolean rising = !sortAscendingYearButton.isSelected();
-			svgLibrary.setLibrary(new Library(svgLibrary.getLibrary().sortByYear(rising), nbBooksPerShelf));
+			library.reshelve(library.sortByYear(rising));
 			break;
 		default:
-			svgLibrary = new SVGLibrary(new Library(dataFile.read(), nbBooksPerShelf));
+			library = new Library(catalog.getBooks(), nbBooksPerShelf);
+			library.setSortIndexed(true);
+			svgLibrary = new SVGLibrary(library);
 			break;
 		}
 
@@ -256,7 +294,7 @@ public class Window2DLibrary extends JFrame {
 
 	@SuppressWarnings("unused")
 	public JPanel getPanelCentreDelete() {
-		List<Book> books = dataFile.read();
+		List<Book> books = catalog.getBooks();
 		Library lib = new Library(books, 5);
 		int nbBooks = 0;
 		for (int i = 0; i < lib.getShelves().size(); i++)
@@ -278,7 +316,7 @@ public class Window2DLibrary extends JFrame {
 					+ String.valueOf(bookyear);
 
 			JRadioButton cb = new JRadioButton(bookString);
-			cb.setName(bookString);
+			cb.setName(String.valueOf(lib.getShelves().get(indexShelf).getBooks().get(indexBook).getId()));
 			tab.add(cb);
 			booksButtonGroup.add(cb);
 
@@ -762,6 +800,27 @@ public class Window2DLibrary extends JFrame {
 		@Override
 		public void actionPerformed(ActionEvent e) {
 			String line = searchTextField.getText();
+			// a book of the library named by the search needs no request to the
+			// Library of Congress; the books only having its words are shown
+			// with the result of the request
+			List<Book> found = svgLibrary.getLibrary().search(line);
+			StringBuilder inLibrary = new StringBuilder();
+			int listed = 0;
+			for (Book book : found) {
+				if (Library.matchesExactly(book, line)) {
+					titleTextField.setText(book.getTitle());
+					lastNameTextField.setText(book.getAuthor().getLastName());
+					firstNameTextField.setText(book.getAuthor().getFirstName());
+					JOptionPane.showMessageDialog(pBCenter, "Already in the library");
+					return;
+				}
+				if (listed == 0)
+					inLibrary.append("\nIn the library:");
+				if (listed++ < 10)
+					inLibrary.append("\n").append(book.getTitle());
+			}
+			if (listed > 10)
+				inLibrary.append("\n(").append(listed - 10).append(" more)");
 			ConnectionToCongressLibrary connexion = new ConnectionToCongressLibrary(line);
 
 			String tabResult[] = new String[3];
@@ -770,7 +829,7 @@ public class Window2DLibrary extends JFrame {
 			String[] np = tabResult[1].split(",");
 			lastNameTextField.setText(np[0]);
 			firstNameTextField.setText(np[1]);
-			JOptionPane.showMessageDialog(pBCenter, "Search result");
+			JOptionPane.showMessageDialog(pBCenter, "Search result" + inLibrary);
 		}
 	}
 
@@ -837,15 +896,8 @@ public class Window2DLibrary extends JFrame {
 				dimY = "200";
 			if (dimY.isEmpty())
 				dimY = "200";
-			String line = firstName + ",";
-			line = line + lastName + ",";
-			line = line + title + ",";
-			line = line + year + ",";
-			line = line + dimX + ",";
-			line = line + dimY + ",";
-			line = line + colorComboBox.getSelectedItem().toString() + ",";
-			line = line + "End";
-			dataFile.addLine(line);
+			dataFile.addLine(Arrays.asList(firstName, lastName, title, year, dimX, dimY,
+					colorComboBox.getSelectedItem().toString(), "End"));
 			JOptionPane.showMessageDialog(pBCenter, "Book added successfully");
 			Component[] components = tab.getComponents();
 			for (Component component : components)
@@ -896,8 +948,8 @@ public class Window2DLibrary extends JFrame {
 			while (allRadioButton.hasMoreElements()) {
 				JRadioButton temp = (JRadioButton) allRadioButton.nextElement();
 				if (temp.isSelected()) {
-					JOptionPane.showMessageDialog(null, "You selected : " + temp.getName());
-					dataFile.deleteLine(temp.getName());
+					JOptionPane.showMessageDialog(null, "You selected : " + temp.getText());
+					dataFile.deleteBook(Long.parseLong(temp.getName()));
 					booksButtonGroup.remove(temp);
 					jPanel.remove(temp);
 					jPanel.revalidate();
@@ -906,8 +958,9 @@ public class Window2DLibrary extends JFrame {
 					pDCenter.repaint();
 				}
 			}
-			List<Book> books = dataFile.read();
+			List<Book> books = catalog.getBooks();
 			Library library = new Library(books, nbBooksPerShelf);
+			library.setSortIndexed(true);
 			svgLibrary.setLibrary(library);
 		}
 	}
@@ -0,0 +1,116 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+
+public class BatchedBookWriterTest {
+
+	File csv;
+
+	@Before
+	public void setUp() throws IOException {
+		csv = File.createTempFile("books", ".csv");
+		Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+				+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void add_Should_Write_The_Books_By_Batches() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		BatchedBookWriter writer = new BatchedBookWriter(dataFile, 200, 1, TimeUnit.HOURS, false);
+		for (int i = 0; i < 100; i++)
+			assertEquals(i + 2, writer.add("ZOLA,Émile,Titre " + i + ",1880,25,30,,End"));
+		// the last batch waits in the buffer
+		int written = dataFile.read().size();
+		assertTrue(written > 1 && written < 101);
+		// an identifier given meanwhile by the data file is a new one
+		assertEquals(102, dataFile.addLine("CHUNG,Hugo,Un jour en enfer,2002,25,45,,End"));
+		writer.close();
+		List<Book> books = dataFile.read();
+		assertEquals(102, books.size());
+		assertEquals("Titre 99", books.get(101).getTitle());
+		assertEquals(101, books.get(101).getId());
+	}
+
+	@Test
+	public void add_Should_Write_The_Batch_After_The_Delay() throws InterruptedException {
+		DataFile dataFile = new DataFile(csv.getPath());
+		try (BatchedBookWriter writer = new BatchedBookWriter(dataFile, 1 << 16, 10, TimeUnit.MILLISECONDS, true)) {
+			writer.add("ZOLA,Émile,Nana,1880,25,30,,End");
+			long end = System.currentTimeMillis() + 5000;
+			while (dataFile.read().size() < 2 && System.currentTimeMillis() < end)
+				Thread.sleep(10);
+			assertEquals(2, dataFile.read().size());
+		}
+	}
+
+	@Test
+	public void addBooks_Should_Write_The_Books_At_Once() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		List<String> lines = new ArrayList<>();
+		lines.add("ZOLA,Émile,Nana,1880,25,30,,End");
+		lines.add("ZOLA,Émile,Germinal,1885,25,30,,End,9");
+		lines.add("CHUNG,Hugo,\"Un jour, en enfer\",2002,25,45,,End");
+		// fewer values: the identifier still goes in its column
+		lines.add("ZOLA,Émile,L'Assommoir,1877");
+		assertEquals(Arrays.asList(2L, 9L, 10L, 11L), dataFile.addLines(lines));
+		List<Book> books = dataFile.read();
+		assertEquals(5, books.size());
+		assertEquals("Un jour, en enfer", books.get(3).getTitle());
+		assertEquals(11, books.get(4).getId());
+	}
+
+	@Test
+	public void flush_Should_Write_In_The_Compacted_File() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		try (BatchedBookWriter writer = new BatchedBookWriter(dataFile)) {
+			writer.add("ZOLA,Émile,Nana,1880,25,30,,End");
+			writer.flush();
+			assertTrue(dataFile.deleteBook(1));
+			dataFile.compact();
+			writer.add("ZOLA,Émile,Germinal,1885,25,30,,End");
+		}
+		List<Book> books = dataFile.read();
+		assertEquals(2, books.size());
+		assertEquals("Germinal", books.get(1).getTitle());
+	}
+
+	@Test
+	public void flush_Should_Write_In_The_File_Compacted_By_Another_Data_File() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		try (BatchedBookWriter writer = new BatchedBookWriter(dataFile)) {
+			writer.add("ZOLA,Émile,Nana,1880,25,30,,End");
+			writer.flush();
+			DataFile other = new DataFile(csv.getPath());
+			assertTrue(other.deleteBook(1));
+			other.compact();
+			writer.add("ZOLA,Émile,Germinal,1885,25,30,,End");
+		}
+		List<Book> books = new DataFile(csv.getPath()).read();
+		assertEquals(2, books.size());
+		assertEquals("Germinal", books.get(1).getTitle());
+	}
+
+	@After
+	public void tearDown() {
+		csv.delete();
+		new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+		new File(csv.getPath() + DataFile.LAST_ID_SUFFIX).delete();
+	}
+
+}
@@ -0,0 +1,73 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+
+public class CatalogCacheTest {
+
+	File csv;
+
+	@Before
+	public void setUp() throws IOException {
+		csv = File.createTempFile("books", ".csv");
+		Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+				+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+				+ "CHUNG,Hugo,Un jour en enfer,2002,25,45,,End,2\r\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void getBooks_Should_Read_The_File_Again_Only_When_It_Changes() throws IOException {
+		DataFile dataFile = new DataFile(csv.getPath());
+		CatalogCache catalog = new CatalogCache(dataFile);
+		List<Book> books = catalog.getBooks();
+		assertEquals(2, books.size());
+		// copies of the same books read once
+		books.get(0).setWidth(3);
+		List<Book> again = catalog.getBooks();
+		assertNotSame(books.get(0), again.get(0));
+		assertSame(books.get(0).getAuthor(), again.get(0).getAuthor());
+		assertEquals(25, again.get(0).getWidth());
+
+		dataFile.addLine("ZOLA,Émile,Nana,1880,25,30,,End");
+		assertEquals(3, catalog.getBooks().size());
+		dataFile.deleteBook(1);
+		assertEquals("Un jour en enfer", catalog.getBooks().get(0).getTitle());
+	}
+
+	@Test
+	public void getBooks_Should_See_A_Change_Keeping_The_Length_And_Date() throws IOException {
+		DataFile dataFile = new DataFile(csv.getPath());
+		CatalogCache catalog = new CatalogCache(dataFile);
+		assertEquals(1862, catalog.getBooks().get(0).getYear());
+		long lastModified = csv.lastModified();
+		// one char per byte, to find the offset of the year
+		String content = new String(Files.readAllBytes(csv.toPath()), StandardCharsets.ISO_8859_1);
+		try (RandomAccessFile file = new RandomAccessFile(csv, "rw")) {
+			file.seek(content.indexOf("1862"));
+			file.write("1863".getBytes(StandardCharsets.UTF_8));
+		}
+		csv.setLastModified(lastModified);
+		assertEquals(1863, catalog.getBooks().get(0).getYear());
+	}
+
+	@After
+	public void tearDown() {
+		csv.delete();
+		new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+	}
+
+}
@@ -0,0 +1,61 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.BookTable;
+
+public class CatalogSnapshotTest {
+
+	File csv;
+
+	@Before
+	public void setUp() throws IOException {
+		csv = File.createTempFile("books", ".csv");
+		Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+				+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+				+ "CHUNG,Hugo,\"Un jour, en enfer\",2002,,,,End,2\r\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void load_Should_Read_The_Snapshot_Until_The_Csv_Changes() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		CatalogSnapshot snapshot = new CatalogSnapshot(dataFile);
+		BookTable table = snapshot.load();
+		assertTrue(snapshot.getFile().exists());
+		assertEquals(2, table.size());
+
+		// the sizes generated for the second book are kept by the snapshot
+		BookTable loaded = snapshot.load();
+		assertEquals(2, loaded.size());
+		assertEquals("Un jour, en enfer", loaded.getTitle(1));
+		assertEquals(table.getWidth(1), loaded.getWidth(1));
+		assertEquals(table.getHeight(1), loaded.getHeight(1));
+		assertEquals(table.getColor(0), loaded.getColor(0));
+		assertEquals(2, loaded.getId(1));
+
+		dataFile.addLine("ZOLA,Émile,Nana,1880,25,30,,End");
+		assertEquals(3, snapshot.load().size());
+		assertTrue(dataFile.deleteBook(1));
+		loaded = snapshot.load();
+		assertEquals(2, loaded.size());
+		assertEquals("Nana", loaded.getTitle(1));
+	}
+
+	@After
+	public void tearDown() {
+		csv.delete();
+		new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+		new File(csv.getPath() + CatalogSnapshot.SUFFIX).delete();
+	}
+
+}
@@ -0,0 +1,113 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+import io.github.oliviercailloux.y2017.my_2D_library.model.Library;
+
+public class CatalogWatcherTest {
+
+	File csv;
+	DataFile dataFile;
+	Library library;
+	CatalogWatcher watcher;
+
+	@Before
+	public void setUp() throws IOException {
+		csv = File.createTempFile("books", ".csv");
+		Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+				+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+				+ "CHUNG,Hugo,Un jour en enfer,2002,25,45,,End,2\r\n").getBytes(StandardCharsets.UTF_8));
+		dataFile = new DataFile(csv.getPath());
+		library = new Library(dataFile.read(), 2);
+		watcher = new CatalogWatcher(dataFile, () -> library, Runnable::run);
+		watcher.start();
+	}
+
+	@Test
+	public void check_Should_Add_The_Books_Appended() throws IOException {
+		append("ZOLA,Émile,Nana,1880,25,30,,End,3\r\nZOLA,Émile,Germi");
+		watcher.check();
+		assertEquals(3, library.getListOfAllTheBooks().size());
+		assertEquals("Nana", library.getBook(3).getTitle());
+		// the line is read once complete
+		append("nal,1885,25,30,,End,4\r\n");
+		watcher.check();
+		assertEquals("Germinal", library.getBook(4).getTitle());
+		assertEquals(2, library.getShelves().size());
+	}
+
+	@Test
+	public void check_Should_Give_Identifiers_To_The_Lines_Appended_Without_Rewriting() throws IOException {
+		append("ZOLA,Émile,Nana,1880,25,30,,End\r\nZOLA,Émile,Germi");
+		watcher.check();
+		Book nana = library.getBook(3);
+		assertEquals("Nana", nana.getTitle());
+		append("nal,1885,25,30,,End\r\n");
+		watcher.check();
+		assertEquals("Germinal", library.getBook(4).getTitle());
+		// a reading finds no identifier to give, and the watcher nothing to
+		// reload
+		assertEquals(4, dataFile.read().size());
+		watcher.check();
+		assertSame(nana, library.getBook(3));
+		assertTrue(new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8)
+				.endsWith("ZOLA,Émile,Nana,1880,25,30,,End,3\r\nZOLA,Émile,Germinal,1885,25,30,,End,4\r\n"));
+	}
+
+	@Test
+	public void check_Should_Remove_The_Books_Deleted() {
+		dataFile.deleteBook(1);
+		watcher.check();
+		assertNull(library.getBook(1));
+		assertEquals(1, library.getListOfAllTheBooks().size());
+	}
+
+	@Test
+	public void check_Should_Reload_A_Rewritten_File() throws IOException {
+		Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+				+ "ZOLA,Émile,Nana,1880,25,30,,End,3\r\n").getBytes(StandardCharsets.UTF_8));
+		watcher.check();
+		assertEquals("Nana", titles().get(0));
+		assertEquals(1, titles().size());
+
+		dataFile.addLine("ZOLA,Émile,Germinal,1885,25,30,,End");
+		dataFile.deleteBook(3);
+		dataFile.compact();
+		watcher.check();
+		assertEquals(1, titles().size());
+		assertEquals("Germinal", titles().get(0));
+	}
+
+	private void append(String text) throws IOException {
+		Files.write(csv.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+	}
+
+	private List<String> titles() {
+		return library.getListOfAllTheBooks().stream().map(Book::getTitle).collect(Collectors.toList());
+	}
+
+	@After
+	public void tearDown() {
+		watcher.close();
+		csv.delete();
+		new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+		new File(csv.getPath() + DataFile.LAST_ID_SUFFIX).delete();
+	}
+
+}
@@ -1,9 +1,22 @@
 package io.github.oliviercailloux.y2017.my_2D_library.controller;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
@@ -52,6 +65,289 @@ public class DataFileTest {
 		assertEquals(true, correct);
 	}
 
+	@Test
+	public void read_Should_Give_Stable_Identifiers_To_The_Books() throws IOException {
+		File csv = File.createTempFile("books", ".csv");
+		try {
+			Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End\r\n"
+					+ "HUGO,Victor,Les Misérables,2001,25,30,bleu,End\r\n"
+					+ "HUGO,Victor,Les Misérables,2001,25,30,bleu,End,7\r\n"
+					+ "CHUNG,Hugo,Un jour en enfer,2002,25,45,,End\r\n").getBytes(StandardCharsets.UTF_8));
+			DataFile file = new DataFile(csv.getPath());
+			List<Book> books = file.read();
+			assertEquals(8, books.get(0).getId());
+			assertEquals(7, books.get(1).getId());
+			assertEquals(9, books.get(2).getId());
+			assertEquals("Un jour en enfer", file.readBook(9).getTitle());
+			// the identifiers are written in the file
+			assertEquals(8, new DataFile(csv.getPath()).read().get(0).getId());
+
+			assertEquals(10, file.addLine("ZOLA,Émile,Nana,1880,25,30,,End"));
+			assertTrue(file.deleteBook(7));
+			assertFalse(file.deleteBook(7));
+			books = file.read();
+			assertEquals(3, books.size());
+			assertEquals(8, books.get(0).getId());
+			assertEquals(10, books.get(2).getId());
+			assertEquals("Nana", books.get(2).getTitle());
+		} finally {
+			csv.delete();
+			new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+		}
+	}
+
+	@Test
+	public void stream_Should_Read_Quoted_Values() throws IOException {
+		File csv = File.createTempFile("books", ".csv");
+		try {
+			Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+					+ "HUGO,Victor,\"Bug-Jargal, ou la Révolution\",1826,25,30,bleu,End,1\r\n"
+					+ "CHUNG,Hugo,Un jour en enfer,2002,25,45,,End,2\r\n").getBytes(StandardCharsets.UTF_8));
+			DataFile file = new DataFile(csv.getPath());
+			try (Stream<Book> books = file.stream()) {
+				assertEquals(Arrays.asList("Bug-Jargal, ou la Révolution", "Un jour en enfer"),
+						books.map(Book::getTitle).collect(Collectors.toList()));
+			}
+			// the quotes are kept when the file is written again
+			assertTrue(file.deleteBook(2));
+			List<Book> books = file.read();
+			assertEquals(1, books.size());
+			assertEquals("Bug-Jargal, ou la Révolution", books.get(0).getTitle());
+			assertEquals(1826, books.get(0).getYear());
+		} finally {
+			csv.delete();
+			new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+		}
+	}
+
+	@Test
+	public void read_Should_Pool_Only_The_Authors_Of_The_Books_Read() throws IOException {
+		File csv = File.createTempFile("books", ".csv");
+		try {
+			Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+					+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+					+ "CHUNG,Hugo,Un jour en enfer,2002,25,45,,End,2\r\n"
+					+ "HUGO,Victor,Les Contemplations,1856,25,30,,End,3\r\n").getBytes(StandardCharsets.UTF_8));
+			DataFile file = new DataFile(csv.getPath());
+			List<Book> books = file.read();
+			assertSame(books.get(0).getAuthor(), books.get(2).getAuthor());
+			assertEquals(2, file.getAuthorPool().size());
+			assertTrue(file.deleteBook(2));
+			file.read();
+			assertEquals(1, file.getAuthorPool().size());
+		} finally {
+			csv.delete();
+			new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+		}
+	}
+
+	@Test
+	public void deleteBook_Should_Append_A_Tombstone_Then_Compact() throws Exception {
+		File csv = File.createTempFile("books", ".csv");
+		File tombstones = new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX);
+		try {
+			String content = "Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+					+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+					+ "CHUNG,Hugo,Un jour en enfer,2002,25,45,,End,2\r\n"
+					+ "ZOLA,Émile,Nana,1880,25,30,,End,3\r\n"
+					+ "ZOLA,Émile,Germinal,1885,25,30,,End,4\r\n";
+			Files.write(csv.toPath(), content.getBytes(StandardCharsets.UTF_8));
+			DataFile file = new DataFile(csv.getPath());
+			file.setCompactionThreshold(0.5);
+			assertTrue(file.deleteBook(2));
+			assertTrue(file.deleteBook(3));
+			// below the threshold: the csv file is unchanged
+			assertEquals(content, new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8));
+			assertEquals(Arrays.asList("Les Misérables", "Germinal"),
+					file.read().stream().map(Book::getTitle).collect(Collectors.toList()));
+			assertEquals(Arrays.asList("Les Misérables", "Germinal"), new ParallelCsvLoader(file).read().stream()
+					.map(Book::getTitle).collect(Collectors.toList()));
+
+			assertTrue(file.deleteBook(1));
+			file.awaitCompaction();
+			assertFalse(tombstones.exists());
+			List<Book> books = new DataFile(csv.getPath()).read();
+			assertEquals(1, books.size());
+			assertEquals(4, books.get(0).getId());
+			assertFalse(file.deleteBook(1));
+			assertEquals(5, file.addLine("ZOLA,Émile,Nana,1880,25,30,,End"));
+		} finally {
+			csv.delete();
+			tombstones.delete();
+			new File(csv.getPath() + DataFile.LAST_ID_SUFFIX).delete();
+		}
+	}
+
+	@Test
+	public void compact_Should_Apply_The_Tombstones_Of_Another_Data_File() throws IOException {
+		File csv = File.createTempFile("books", ".csv");
+		File tombstones = new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX);
+		try {
+			Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+					+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+					+ "ZOLA,Émile,Nana,1880,25,30,,End,2\r\n"
+					+ "ZOLA,Émile,Germinal,1885,25,30,,End,3\r\n").getBytes(StandardCharsets.UTF_8));
+			DataFile file = new DataFile(csv.getPath());
+			assertTrue(file.deleteBook(2));
+			assertTrue(new DataFile(csv.getPath()).deleteBook(3));
+			file.compact();
+			assertFalse(tombstones.exists());
+			assertEquals(Arrays.asList("Les Misérables"),
+					new DataFile(csv.getPath()).read().stream().map(Book::getTitle).collect(Collectors.toList()));
+		} finally {
+			csv.delete();
+			tombstones.delete();
+			new File(csv.getPath() + DataFile.LAST_ID_SUFFIX).delete();
+		}
+	}
+
+	@Test
+	public void compact_Should_Not_Give_The_Identifiers_Removed_Again() throws IOException {
+		File csv = File.createTempFile("books", ".csv");
+		File lastId = new File(csv.getPath() + DataFile.LAST_ID_SUFFIX);
+		try {
+			Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+					+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+					+ "ZOLA,Émile,Nana,1880,25,30,,End,2\r\n").getBytes(StandardCharsets.UTF_8));
+			DataFile file = new DataFile(csv.getPath());
+			assertTrue(file.deleteBook(2));
+			file.compact();
+			assertEquals(1, file.read().size());
+			// another program reading the compacted file
+			assertEquals(3, new DataFile(csv.getPath()).addLine("ZOLA,Émile,Germinal,1885,25,30,,End"));
+		} finally {
+			csv.delete();
+			lastId.delete();
+			new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+		}
+	}
+
+	@Test
+	public void compact_Should_Keep_A_Line_Being_Appended_By_Another_Program() throws IOException {
+		File csv = File.createTempFile("books", ".csv");
+		try {
+			Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+					+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+					+ "ZOLA,Émile,Nana,1880,25,30,,End,2\r\n"
+					+ "ZOLA,Émile,Germi").getBytes(StandardCharsets.UTF_8));
+			DataFile file = new DataFile(csv.getPath());
+			assertTrue(file.deleteBook(2));
+			file.compact();
+			// the other program ends its line in the compacted file
+			Files.write(csv.toPath(), "nal,1885,25,30,,End\r\n".getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.APPEND);
+			List<Book> books = file.read();
+			assertEquals(Arrays.asList("Les Misérables", "Germinal"),
+					books.stream().map(Book::getTitle).collect(Collectors.toList()));
+			assertEquals(3, books.get(1).getId());
+		} finally {
+			csv.delete();
+			new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+			new File(csv.getPath() + DataFile.LAST_ID_SUFFIX).delete();
+		}
+	}
+
+	@Test
+	public void readBook_Should_Read_Update_And_Delete_One_Record() throws IOException {
+		File csv = File.createTempFile("books", ".csv");
+		try {
+			Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+					+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+					+ "CHUNG,Hugo,\"Un jour, en enfer\",2002,25,45,,End,2\r\n"
+					+ "ZOLA,Émile,Nana,1880,25,30,,End,3\r\n").getBytes(StandardCharsets.UTF_8));
+			DataFile file = new DataFile(csv.getPath());
+			assertEquals("Un jour, en enfer", file.readBook(2).getTitle());
+			assertEquals(null, file.readBook(4));
+			assertEquals(4, file.addLine("ZOLA,Émile,Germinal,1885,25,30,,End"));
+			assertEquals("Germinal", file.readBook(4).getTitle());
+			assertEquals(5, file.addLine("ZOLA,Émile,L'Assommoir,1877"));
+			assertEquals(5, file.readBook(5).getId());
+			assertEquals(6, file.addLine(Arrays.asList("ZOLA", "Émile", "Nana, \"la\" courtisane", "1880")));
+			assertEquals("Nana, \"la\" courtisane", file.readBook(6).getTitle());
+
+			// shorter: written in place
+			long length = csv.length();
+			assertTrue(file.updateLine(1, "HUGO,Victor,Hernani,1830,25,30,bleu,End"));
+			assertEquals(length, csv.length());
+			assertEquals("Hernani", file.readBook(1).getTitle());
+			// longer: the file is written again
+			assertTrue(file.updateLine(3, "ZOLA,Émile,La Fortune des Rougon,1871,25,30,,End"));
+			assertEquals(1871, file.readBook(3).getYear());
+			assertEquals(Arrays.asList("Hernani", "Un jour, en enfer", "La Fortune des Rougon", "Germinal", "L'Assommoir",
+					"Nana, \"la\" courtisane"),
+					file.read().stream().map(Book::getTitle).collect(Collectors.toList()));
+
+			file.deleteLine("HUGO,Victor,Hernani,1830");
+			assertEquals(null, file.readBook(1));
+			assertFalse(file.updateLine(1, "HUGO,Victor,Hernani,1830,25,30,bleu,End"));
+			assertEquals(5, file.read().size());
+		} finally {
+			csv.delete();
+			new File(csv.getPath() + DataFile.TOMBSTONES_SUFFIX).delete();
+		}
+	}
+
+	@Test
+	public void read_Should_Never_See_A_Record_Being_Written() throws Exception {
+		File csv = File.createTempFile("books", ".csv");
+		try {
+			Files.write(csv.toPath(), ("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n"
+					+ "HUGO,Victor,Les Misérables,1862,25,30,bleu,End,1\r\n"
+					+ "CHUNG,Hugo,Un jour en enfer,2002,25,45,,End,2\r\n"
+					+ "ZOLA,Émile,Nana,1880,25,30,,End,3\r\n").getBytes(StandardCharsets.UTF_8));
+			DataFile writer = new DataFile(csv.getPath());
+			DataFile reader = new DataFile(csv.getPath());
+			assertTrue(writer.getFileLock() == reader.getFileLock());
+			Thread writing = new Thread(() -> {
+				StringBuilder title = new StringBuilder("Nana");
+				for (int i = 0; i < 200; i++) {
+					// written again when longer, otherwise over the record
+					if (i % 2 == 0)
+						title.append('x');
+					writer.updateLine(3, "ZOLA,Émile," + (i % 2 == 0 ? title : "Nana") + ",1880,25,30,,End");
+				}
+			});
+			writing.start();
+			while (writing.isAlive()) {
+				List<Book> books = reader.read();
+				assertEquals(3, books.size());
+				Book book = books.get(2);
+				assertEquals(3, book.getId());
+				assertTrue(book.getTitle(), book.getTitle().matches("Nanax*"));
+				assertEquals(1880, book.getYear());
+				assertTrue(reader.readBook(3).getTitle().matches("Nanax*"));
+			}
+			writing.join();
+		} finally {
+			csv.delete();
+		}
+	}
+
+	@Test
+	public void readOptimistically_Should_Read_Again_What_Failed_While_Written() throws Exception {
+		DataFile file = new DataFile(File.createTempFile("books", ".csv").getPath());
+		try {
+			AtomicInteger attempts = new AtomicInteger();
+			assertEquals("read", file.readOptimistically(() -> {
+				if (attempts.incrementAndGet() == 1) {
+					// a writing meanwhile, then a record that does not parse
+					file.getFileLock().unlockWrite(file.getFileLock().writeLock());
+					throw new NumberFormatException("torn");
+				}
+				return "read";
+			}));
+			assertEquals(2, attempts.get());
+			try {
+				file.readOptimistically(() -> Integer.parseInt("not written"));
+				fail();
+			} catch (NumberFormatException e) {
+				// no writing: the exception is the reading's
+			}
+		} finally {
+			new File(file.getBooksFilePath()).delete();
+		}
+	}
+
 	/**
 	 * Compare the two lists of books.
 	 * 
@@ -0,0 +1,86 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+import io.github.oliviercailloux.y2017.my_2D_library.model.Library;
+import io.github.oliviercailloux.y2017.my_2D_library.model.Shelf;
+
+public class ExternalBookSortTest {
+
+	File csv;
+	DataFile dataFile;
+
+	@Before
+	public void setUp() throws IOException {
+		csv = File.createTempFile("books", ".csv");
+		StringBuilder content = new StringBuilder("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End\r\n");
+		Random random = new Random(8);
+		String[] colors = { "bleu", "rose", "" };
+		for (int i = 0; i < 250; i++) {
+			content.append("ZOLA,Émile,Titre ").append(i).append(',').append(1900 + random.nextInt(20)).append(",25,30,")
+					.append(colors[i % colors.length]).append(",End\r\n");
+		}
+		Files.write(csv.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+		dataFile = new DataFile(csv.getPath());
+	}
+
+	@Test
+	public void sort_Should_Give_The_Order_Of_A_Stable_Sort_In_Memory() {
+		Comparator<Book> byYear = Comparator.comparingInt(Book::getYear);
+		List<Book> expected = dataFile.read();
+		expected.sort(byYear);
+		List<Book> actual = new ArrayList<>();
+		new ExternalBookSort(byYear, 16).sort(dataFile, actual::add);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+			assertEquals(expected.get(i).getYear(), actual.get(i).getYear());
+			assertEquals(expected.get(i).getColor(), actual.get(i).getColor());
+			assertEquals(expected.get(i).getAuthor(), actual.get(i).getAuthor());
+		}
+	}
+
+	@Test
+	public void sortIntoShelves_Should_Fill_Shelves_As_CreateLibrary() {
+		Comparator<Book> byYear = Comparator.comparingInt(Book::getYear);
+		List<Book> sorted = dataFile.read();
+		sorted.sort(byYear);
+		List<Shelf> expected = Library.createLibrary(sorted, 18);
+		List<Shelf> actual = new ArrayList<>();
+		new ExternalBookSort(byYear, 40).sortIntoShelves(dataFile, 18, actual::add);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getBooks().size(), actual.get(i).getBooks().size());
+			assertEquals(expected.get(i).getBooks().get(0).getTitle(), actual.get(i).getBooks().get(0).getTitle());
+		}
+	}
+
+	@Test
+	public void sort_Should_Not_Pool_The_Authors() {
+		List<Book> actual = new ArrayList<>();
+		new ExternalBookSort(Comparator.comparingInt(Book::getYear), 16).sort(dataFile, actual::add);
+		assertEquals(0, dataFile.getAuthorPool().size());
+		assertNotSame(actual.get(0).getAuthor(), actual.get(1).getAuthor());
+	}
+
+	@After
+	public void tearDown() {
+		csv.delete();
+	}
+
+}
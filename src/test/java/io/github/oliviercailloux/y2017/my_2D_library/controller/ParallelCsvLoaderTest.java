@@ -0,0 +1,114 @@
+package io.github.oliviercailloux.y2017.my_2D_library.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.oliviercailloux.y2017.my_2D_library.model.Book;
+
+public class ParallelCsvLoaderTest {
+
+	File csv;
+
+	@Before
+	public void setUp() throws IOException {
+		csv = File.createTempFile("books", ".csv");
+		StringBuilder content = new StringBuilder("Nom,Prenom,Titre,Anne,dimx,dimy,Couleur,End,Id\r\n");
+		Random random = new Random(17);
+		String[] colors = { "bleu", "rose", "", "vert" };
+		for (int i = 1; i <= 3000; i++) {
+			String title = i % 7 == 0 ? "\"Titre, " + i + "\"" : "Titre é" + i;
+			content.append("ZOLA").append(i % 13).append(",Émile,").append(title).append(',')
+					.append(1900 + random.nextInt(100)).append(",25,30,").append(colors[i % colors.length])
+					.append(",End,").append(i).append("\r\n");
+			if (i % 500 == 0)
+				content.append("\r\n");
+		}
+		Files.write(csv.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void read_Should_Give_The_Books_Of_DataFile_In_The_Same_Order() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		List<Book> expected = dataFile.read();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<Book> actual = new ParallelCsvLoader(dataFile, pool, 1000).read();
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getId(), actual.get(i).getId());
+				assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+				assertEquals(expected.get(i).getYear(), actual.get(i).getYear());
+				assertEquals(expected.get(i).getColor(), actual.get(i).getColor());
+				assertEquals(expected.get(i).getAuthor(), actual.get(i).getAuthor());
+			}
+			// the books of the same author share it, across the chunks
+			assertSame(actual.get(0).getAuthor(), actual.get(2990).getAuthor());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void readLazy_Should_Decode_As_DataFile() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		List<Book> expected = dataFile.read();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<Book> actual = new ParallelCsvLoader(dataFile, pool, 1000).readLazy();
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				Book book = actual.get(i);
+				long version = book.getVersion();
+				assertEquals(expected.get(i).getYear(), book.getYear());
+				assertEquals(expected.get(i).getId(), book.getId());
+				assertEquals(expected.get(i).getTitle(), book.getTitle());
+				assertEquals(expected.get(i).getWidth(), book.getWidth());
+				assertEquals(expected.get(i).getColor(), book.getColor());
+				assertEquals(expected.get(i).getAuthor(), book.getAuthor());
+				// decoding is not a change
+				assertEquals(version, book.getVersion());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void readLazy_Should_Keep_The_Changes() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		Book book = new ParallelCsvLoader(dataFile).readLazy().get(6);
+		book.setTitle("Autre titre");
+		assertEquals("Autre titre", book.getTitle());
+		assertEquals("Titre, 7", dataFile.read().get(6).getTitle());
+		assertEquals(7, book.freeze().getId());
+	}
+
+	@Test
+	public void readLazy_Should_Not_See_The_Records_Written_Over() {
+		DataFile dataFile = new DataFile(csv.getPath());
+		Book book = new ParallelCsvLoader(dataFile).readLazy().get(0);
+		// shorter, so written in place
+		dataFile.updateLine(1, "ZOLA1,Émile,Nana,1880,25,30,,End");
+		assertEquals("Nana", dataFile.read().get(0).getTitle());
+		assertEquals("Titre é1", book.getTitle());
+		assertEquals(1, book.getId());
+	}
+
+	@After
+	public void tearDown() {
+		csv.delete();
+	}
+
+}
@@ -0,0 +1,47 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class AuthorPoolTest {
+
+	@Test
+	public void intern_Should_Return_The_Same_Author_For_Equal_Names() {
+		AuthorPool pool = new AuthorPool();
+		Author hugo = pool.intern("HUGO", "Victor");
+		assertSame(hugo, pool.intern(new String("HUGO"), new String("Victor")));
+		assertSame(hugo, pool.intern(new Author("HUGO", "Victor")));
+		assertEquals(new Author("HUGO", "Victor"), hugo);
+		pool.intern("CHUNG", "Hugo");
+		assertEquals(2, pool.size());
+	}
+
+	@Test
+	public void intern_Should_Copy_The_Given_Author() {
+		AuthorPool pool = new AuthorPool();
+		Author names = new Author("HUGO", "Victor");
+		Author hugo = pool.intern(names);
+		names.setLastName("ZOLA");
+		assertEquals("HUGO", hugo.getLastName());
+	}
+
+	@Test
+	public void intern_Should_Share_The_Names() {
+		AuthorPool pool = new AuthorPool();
+		String victor = pool.intern("HUGO", "Victor").getFirstName();
+		assertSame(victor, pool.intern("DUPONT", new String("Victor")).getFirstName());
+	}
+
+	@Test
+	public void clear_Should_Forget_The_Authors() {
+		AuthorPool pool = new AuthorPool();
+		Author hugo = pool.intern("HUGO", "Victor");
+		pool.clear();
+		assertEquals(0, pool.size());
+		assertEquals(hugo, pool.intern("HUGO", "Victor"));
+		assertEquals(1, pool.size());
+	}
+
+}
@@ -14,4 +14,17 @@ public class AuthorTest {
 	    Assert.assertTrue(x.equals(y) && y.equals(x));
 	    Assert.assertTrue(x.hashCode() == y.hashCode());
 	}
+
+	@Test
+	public void testFreeze(){
+	    Author x = new Author("Victor", "HugoChung");
+		Author y = new Author("Victor", "HugoChung").freeze();
+	    Assert.assertTrue(x.equals(y) && x.hashCode() == y.hashCode());
+	    try {
+	    	y.setFirstName("Hugo");
+	    	Assert.fail();
+	    } catch (UnsupportedOperationException e) {
+	    	Assert.assertEquals("HugoChung", y.getFirstName());
+	    }
+	}
 }
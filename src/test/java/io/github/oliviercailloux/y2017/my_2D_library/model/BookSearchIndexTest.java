@@ -0,0 +1,78 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BookSearchIndexTest {
+
+	@Test
+	public void tokenize_Should_Lowercase_And_Strip_Accents() {
+		assertArrayEquals(new String[] { "l", "ecume", "des", "jours" }, BookSearchIndex.tokenize("L'Écume des jours"));
+	}
+
+	@Test
+	public void search_Should_Return_The_Books_In_The_Order_They_Were_Indexed() {
+		BookSearchIndex index = new BookSearchIndex();
+		Book b1 = new Book("Les Misérables", new Author("HUGO", "Victor"), 1862);
+		Book b2 = new Book("Un jour en enfer", new Author("CHUNG", "Hugo"), 2002);
+		Book b3 = new Book("Les Contemplations", new Author("HUGO", "Victor"), 1856);
+		index.add(b1);
+		index.add(b2);
+		index.add(b3);
+		assertEquals(Arrays.asList(b1, b2, b3), index.search("hug"));
+		assertEquals(Arrays.asList(b1, b3), index.search("victor hugo"));
+		assertEquals(Arrays.asList(b1, b3), index.search("les"));
+		index.remove(b1);
+		assertEquals(Arrays.asList(b3), index.search("les"));
+		assertEquals(Arrays.asList(b2), index.search("en"));
+	}
+
+	@Test
+	public void matchesExactly_Should_Need_All_The_Words_Of_The_Title() {
+		Book book = new Book("Les Misérables", new Author("HUGO", "Victor"), 1862);
+		assertTrue(BookSearchIndex.matchesExactly(book, "les miserables"));
+		assertTrue(BookSearchIndex.matchesExactly(book, "Hugo, Les Misérables"));
+		assertFalse(BookSearchIndex.matchesExactly(book, "les mis"));
+		assertFalse(BookSearchIndex.matchesExactly(book, "hugo"));
+		assertFalse(BookSearchIndex.matchesExactly(book, "les miserables tome 2"));
+	}
+
+	@Test
+	public void remove_Should_Prune_The_Words_No_Longer_Indexed() {
+		BookSearchIndex index = new BookSearchIndex();
+		Book b1 = new Book("Germinal", new Author("ZOLA", "Émile"), 1885);
+		index.add(b1);
+		int size = index.trieSize();
+		Book b2 = new Book("Nana", new Author("ZOLA", "Émile"), 1880);
+		index.add(b2);
+		index.remove(b2);
+		assertEquals(size, index.trieSize());
+		index.remove(b1);
+		assertEquals(1, index.trieSize());
+		assertEquals(Arrays.asList(), index.search("z"));
+	}
+
+	@Test
+	public void search_Should_Find_Short_Prefixes_In_Order() {
+		BookSearchIndex index = new BookSearchIndex();
+		Book b1 = new Book("Nana", new Author("ZOLA", "Émile"), 1880);
+		Book b2 = new Book("Germinal", new Author("ZOLA", "Émile"), 1885);
+		Book b3 = new Book("Notre-Dame de Paris", new Author("HUGO", "Victor"), 1831);
+		index.add(b1);
+		index.add(b2);
+		index.add(b3);
+		assertEquals(Arrays.asList(b1, b3), index.search("n"));
+		assertEquals(Arrays.asList(b1, b2), index.search("zola e"));
+		assertEquals(Arrays.asList(b3), index.search("no"));
+		index.remove(b3);
+		assertEquals(Arrays.asList(b1), index.search("n"));
+		assertEquals(Arrays.asList(), index.search("no"));
+	}
+
+}
@@ -0,0 +1,102 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BookTableTest {
+
+	BookTable table;
+
+	@Before
+	public void setUp() {
+		table = new BookTable();
+		Book b1 = new Book("Les Misérables", new Author("HUGO", "Victor"), 1862);
+		b1.setWidth(25);
+		b1.setHeight(30);
+		b1.setColor(Color.BLUE);
+		table.add(b1);
+		Book b2 = new Book("Notre-Dame de Paris", new Author("HUGO", "Victor"), 1831);
+		table.add(b2);
+		Book b3 = new Book("Les Misérables", new Author("CHUNG", "Hugo"), 2002);
+		table.add(b3);
+	}
+
+	@Test
+	public void get_Should_Return_A_Book_With_The_Attributes_Of_The_Row() {
+		assertEquals(3, table.size());
+		Book book = table.get(0);
+		assertEquals("Les Misérables", book.getTitle());
+		assertEquals("HUGO", book.getAuthor().getLastName());
+		assertEquals(1862, book.getYear());
+		assertEquals(25, book.getWidth());
+		assertEquals(30, book.getHeight());
+		assertEquals(Color.BLUE, book.getColor());
+		assertNull(table.get(1).getColor());
+		assertTrue(book.isEqualTo(table.get(0)));
+	}
+
+	@Test
+	public void add_Should_Share_The_Authors_And_The_Titles() {
+		assertEquals(2, table.getNbAuthors());
+		assertEquals(2, table.getNbTitles());
+		assertSame(table.get(0).getAuthor(), table.get(1).getAuthor());
+		assertSame(table.get(0).getTitle(), table.get(2).getTitle());
+	}
+
+	@Test
+	public void setters_Of_The_View_Should_Write_In_The_Table() {
+		List<Book> books = table.getBooks();
+		books.get(1).setYear(1832);
+		books.get(1).setColor(Color.ORANGE);
+		books.get(2).setAuthor(new Author("HUGO", "Victor"));
+		assertEquals(1832, table.getYear(1));
+		assertEquals(Color.ORANGE, table.getColor(1));
+		assertSame(table.getAuthor(0), table.getAuthor(2));
+	}
+
+	@Test
+	public void view_Should_Behave_As_A_Book_Without_Attributes_Of_Its_Own() {
+		Book book = table.get(0);
+		assertFalse(book.isFrozen());
+		Book copy = book.copy();
+		assertEquals(copy.hashCode(), book.hashCode());
+		assertEquals(book.getVersion(), table.getVersion());
+		copy.setYear(1863);
+		assertEquals(1862, book.getYear());
+	}
+	@Test
+	public void read_Should_Give_The_Table_Written() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		table.write(new DataOutputStream(bytes));
+		BookTable read = BookTable.read(ByteBuffer.wrap(bytes.toByteArray()));
+		assertEquals(3, read.size());
+		assertEquals(2, read.getNbAuthors());
+		assertEquals(2, read.getNbTitles());
+		for (int row = 0; row < 3; row++) {
+			assertEquals(table.getTitle(row), read.getTitle(row));
+			assertEquals(table.getAuthor(row), read.getAuthor(row));
+			assertEquals(table.getYear(row), read.getYear(row));
+			assertEquals(table.getWidth(row), read.getWidth(row));
+		}
+		assertEquals(Color.BLUE, read.getColor(0));
+		assertNull(read.getColor(1));
+		// the table read grows as any table
+		read.add(new Book("Nana", new Author("ZOLA", "Émile"), 1880));
+		assertEquals("Nana", read.getTitle(3));
+		assertSame(read.getAuthor(0), read.getAuthor(1));
+	}
+
+}
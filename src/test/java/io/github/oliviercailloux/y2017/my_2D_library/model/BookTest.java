@@ -1,8 +1,12 @@
 package io.github.oliviercailloux.y2017.my_2D_library.model;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.Color;
+import java.util.Objects;
 
 import org.junit.Test;
 
@@ -30,6 +34,19 @@ public class BookTest {
 	    assertTrue(x.hashCode() == y.hashCode());
 	}
 	
+	@Test
+	public void getTitleSortKey_Should_Follow_The_French_Order(){
+		Book ebene = new Book("Ébène", new Author("Kapuściński", "Ryszard"), 1998);
+		Book ecole = new Book("ecole des femmes", new Author("MOLIÈRE", ""), 1662);
+		Book zola = new Book("Zola", new Author("Mitterand", "Henri"), 1999);
+		assertTrue(SortKeys.compare(ebene.getTitleSortKey(), ecole.getTitleSortKey()) < 0);
+		assertTrue(SortKeys.compare(ecole.getTitleSortKey(), zola.getTitleSortKey()) < 0);
+		assertTrue(SortKeys.compare(SortKeys.of("Les Misérables"), SortKeys.of("les misérables")) == 0);
+		ecole.setTitle("Zadig");
+		assertTrue(SortKeys.compare(ecole.getTitleSortKey(), zola.getTitleSortKey()) < 0);
+		assertTrue(new BookCompareByAuthor().compare(zola, ecole) < 0);
+	}
+
 	@Test
 	public void compareBooksTest(){
 	    Author olympie = new Author("Olympie", "Suquet");
@@ -50,4 +67,42 @@ public class BookTest {
 
 	    assertTrue(x.compareYear(y));
 	}
+
+	@Test
+	public void build_Should_Give_A_Frozen_Book_With_The_Hash_Of_A_Mutable_One(){
+	    Author olympie = new Author("Olympie", "Suquet");
+		Book x = new Book();
+		x.setAuthor(olympie);
+		x.setTitle("Titre popo");
+		x.setYear(2014);
+		x.setHeight(3);
+		x.setWidth(3);
+		x.setColor(Color.BLUE);
+		Book y = new Book.Builder().author(new Author("Olympie", "Suquet")).title("Titre popo").year(2014).height(3)
+				.width(3).color(Color.BLUE).build();
+
+		assertTrue(y.isFrozen() && y.getAuthor().isFrozen());
+		assertEquals(Objects.hash(olympie, Color.BLUE, 3, "Titre popo", 3, 2014), x.hashCode());
+		assertEquals(x.hashCode(), y.hashCode());
+		assertTrue(x.isEqualTo(y));
+	}
+
+	@Test
+	public void freeze_Should_Leave_The_Author_Given_Modifiable(){
+		Author hugo = new Author("HUGO", "Victor");
+		Book book = new Book.Builder().author(hugo).title("Les Misérables").year(1862).build();
+		assertFalse(hugo.isFrozen());
+		assertTrue(book.getAuthor().isFrozen());
+		assertEquals(hugo, book.getAuthor());
+		hugo.setFirstName("Victor-Marie");
+		assertEquals("Victor", book.getAuthor().getFirstName());
+		Author frozen = new Author("ZOLA", "Émile").freeze();
+		assertSame(frozen, new Book.Builder().author(frozen).build().getAuthor());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void setYear_Should_Throw_When_The_Book_Is_Frozen(){
+		Book book = new Book.Builder().title("Titre popo").year(2014).build();
+		book.setYear(2015);
+	}
 }
@@ -4,7 +4,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.Before;
@@ -105,6 +109,240 @@ public class LibraryTest {
 		assertEquals("ROWLING", expected.get(2).getAuthor().getLastName());
 	}
 	
+	@Test
+	public void getViewOfAllTheBooks_Should_Reach_The_Books_By_Their_Global_Index(){
+		List<Book> view = library.getViewOfAllTheBooks();
+		assertEquals(3, view.size());
+		assertEquals("Une vie de coccinelle", view.get(0).getTitle());
+		assertEquals("Harry Poopper", view.get(1).getTitle());
+		assertEquals("Les misérables", view.get(2).getTitle());
+		assertEquals(library.getListOfAllTheBooks(), new ArrayList<>(view));
+	}
+
+	@Test
+	public void getViewOfAllTheBooks_Should_Be_Splittable_Without_Losing_Books(){
+		List<Book> books = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+			books.add(new Book("t" + i, new Author("A", "B"), i));
+		Library bigLibrary = new Library(books, 7);
+		Spliterator<Book> spliterator = bigLibrary.getViewOfAllTheBooks().spliterator();
+		assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+		Spliterator<Book> prefix = spliterator.trySplit();
+		assertEquals(500, prefix.estimateSize());
+		assertEquals(500, spliterator.estimateSize());
+		assertEquals(499500, bigLibrary.getViewOfAllTheBooks().parallelStream().mapToInt(Book::getYear).sum());
+		assertEquals(books, bigLibrary.getViewOfAllTheBooks().parallelStream().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void sorts_Should_Be_The_Same_With_Sort_Indexes(){
+		Library indexed = new Library(library.getListOfAllTheBooks(), 2);
+		indexed.setSortIndexed(true);
+		Book b4 = new Book("Harry Poopper", new Author("ROWLING", "JK"), 2005);
+		Book b5 = new Book("Aline", new Author("CHUNG", "Hugo"), 1860);
+		for (Library lib : new Library[] { library, indexed }) {
+			lib.addBook(b4);
+			lib.addBook(b5);
+			assertTrue(lib.removeBook(lib.getShelves().get(0).getBooks().get(0)));
+		}
+		assertEquals(library.sortByTitle(), indexed.sortByTitle());
+		assertEquals(library.sortByAuthor(), indexed.sortByAuthor());
+		assertEquals(library.sortByYear(true), indexed.sortByYear(true));
+		assertEquals(library.sortByYear(false), indexed.sortByYear(false));
+		assertEquals(4, indexed.sortByTitle().size());
+	}
+
+	@Test
+	public void sortBy_Should_Be_The_Same_With_Sort_Indexes(){
+		List<Book> books = new ArrayList<>();
+		Random random = new Random(7);
+		for (int i = 0; i < 500; i++)
+			books.add(new Book("T" + random.nextInt(20), new Author("A" + random.nextInt(10), "B" + random.nextInt(3)),
+					1900 + random.nextInt(5)));
+		Library plain = new Library(books, 18);
+		Library indexed = new Library(books, 18);
+		indexed.setSortIndexed(true);
+		for (MultiKeySort sort : new MultiKeySort[] {
+				MultiKeySort.by(SortCriterion.AUTHOR, true).then(SortCriterion.FIRST_NAME, true)
+						.then(SortCriterion.YEAR, false),
+				MultiKeySort.by(SortCriterion.YEAR, false), MultiKeySort.by(SortCriterion.TITLE, false)
+						.then(SortCriterion.AUTHOR, true),
+				MultiKeySort.by(SortCriterion.FIRST_NAME, true) })
+			assertEquals(plain.sortBy(sort), indexed.sortBy(sort));
+	}
+
+	@Test
+	public void reshelve_Should_Keep_The_Sort_Indexes(){
+		library.setSortIndexed(true);
+		library.reshelve(library.sortByTitle());
+		assertEquals(2, library.getShelves().size());
+		assertEquals("Harry Poopper", library.getShelves().get(0).getBooks().get(0).getTitle());
+		library.reshelve(library.sortByYear(true));
+		assertEquals(1860, library.getShelves().get(0).getBooks().get(0).getYear());
+		assertEquals(2015, library.getShelves().get(1).getBooks().get(0).getYear());
+	}
+
+	@Test
+	public void sorts_Should_Break_Ties_By_Shelf_After_Reshelve(){
+		Book zeta = new Book("Zeta", new Author("A", "B"), 1900);
+		Book alpha = new Book("Alpha", new Author("A", "B"), 1900);
+		Library plain = new Library(Arrays.asList(zeta, alpha), 2);
+		Library indexed = new Library(Arrays.asList(zeta, alpha), 2);
+		indexed.setSortIndexed(true);
+		for (Library lib : new Library[] { plain, indexed })
+			lib.reshelve(lib.sortByTitle());
+		assertEquals(Arrays.asList(zeta, alpha), indexed.sortByYear(true));
+		assertEquals(plain.sortByYear(true), indexed.sortByYear(true));
+		assertEquals(plain.sortByAuthor(), indexed.sortByAuthor());
+		assertTrue(indexed.removeBook(alpha));
+		assertEquals(1, indexed.getShelves().size());
+		assertEquals(Arrays.asList(zeta), indexed.sortByTitle());
+	}
+
+	@Test
+	public void sort_Indexes_Should_Follow_Reshelves_And_Removals(){
+		List<Book> books = new ArrayList<>();
+		Random random = new Random(11);
+		for (int i = 0; i < 300; i++)
+			books.add(new Book("T" + random.nextInt(30), new Author("A" + random.nextInt(5), "B"), 1900 + random.nextInt(3)));
+		Library plain = new Library(books, 18);
+		Library indexed = new Library(books, 18);
+		indexed.setSortIndexed(true);
+		for (int round = 0; round < 3; round++) {
+			for (Library lib : new Library[] { plain, indexed })
+				lib.reshelve(round % 2 == 0 ? lib.sortByTitle() : lib.sortByYear(false));
+			for (int i = 0; i < 20; i++) {
+				Book book = books.get(random.nextInt(books.size()));
+				assertEquals(plain.removeBook(book), indexed.removeBook(book));
+			}
+			assertEquals(plain.sortByYear(true), indexed.sortByYear(true));
+			assertEquals(plain.sortByAuthor(), indexed.sortByAuthor());
+			assertEquals(plain.oldest(50), indexed.oldest(50));
+		}
+	}
+
+	@Test
+	public void parallel_Sorts_Should_Be_Stable(){
+		List<Book> books = new ArrayList<>();
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++)
+			books.add(new Book("T" + random.nextInt(100), new Author("A" + random.nextInt(100), "B"), i));
+		Library serial = new Library(books, 18);
+		Library parallel = new Library(books, 18);
+		parallel.setParallelSort(true);
+		parallel.setParallelSortThreshold(2);
+		assertEquals(serial.sortByTitle(), parallel.sortByTitle());
+		assertEquals(serial.sortByAuthor(), parallel.sortByAuthor());
+	}
+
+	@Test
+	public void getVersion_Should_Change_With_The_Shelves_And_The_Books(){
+		long version = library.getVersion();
+		Shelf first = library.getShelves().get(0);
+		long firstVersion = first.getVersion();
+		Book book = first.getBooks().get(0);
+		long bookVersion = book.getVersion();
+		long now = Versions.current();
+		assertEquals(version, library.getVersion());
+		assertEquals(now, Versions.current());
+
+		book.getAuthor().setFirstName("Victor");
+		assertTrue(book.getVersion() > bookVersion);
+		assertEquals(version, library.getVersion());
+		// only the years of the books indexed by year move the clock
+		assertEquals(now, Versions.current());
+		bookVersion = book.getVersion();
+		book.setAuthor(new Author("HUGO", "Victor"));
+		assertTrue(book.getVersion() > bookVersion);
+		library.countBetween(0, 3000);
+		now = Versions.current();
+		book.setYear(1863);
+		assertTrue(Versions.current() > now);
+
+		library.addBook(new Book("Nana", new Author("ZOLA", "Émile"), 1880));
+		assertTrue(library.getVersion() > version);
+		assertEquals(firstVersion, first.getVersion());
+		version = library.getVersion();
+		library.removeBook(book);
+		assertTrue(library.getVersion() > version);
+		assertTrue(first.getVersion() > firstVersion);
+	}
+
+	@Test
+	public void search_Should_Find_The_Books_By_Words_And_Prefix(){
+		assertEquals("Les misérables", library.search("miserables").get(0).getTitle());
+		assertEquals("Les misérables", library.search("Baudelaire Les MIS").get(0).getTitle());
+		assertEquals(2, library.search("hugo").size() + library.search("harry").size());
+		assertTrue(library.search("hugo harry").isEmpty());
+		assertTrue(library.search(" ,").isEmpty());
+
+		Book nana = new Book("Nana", new Author("ZOLA", "Émile"), 1880);
+		library.addBook(nana);
+		assertEquals(nana, library.search("emile n").get(0));
+		library.removeBook(nana);
+		assertTrue(library.search("zola").isEmpty());
+	}
+
+	@Test
+	public void year_Queries_Should_Count_The_Books_By_Year(){
+		assertEquals(2, library.countBetween(2000, 2020));
+		assertEquals(0, library.countBetween(2020, 2000));
+		assertEquals("Harry Poopper", library.booksBetween(1900, 2010).get(0).getTitle());
+		library.addBook(new Book("Nana", new Author("ZOLA", "Émile"), 1880));
+		library.addBook(new Book("Germinal", new Author("ZOLA", "Émile"), 1885));
+		assertEquals(Arrays.asList(1860, 1880, 2000, 2010), new ArrayList<>(library.countByDecade().keySet()));
+		assertEquals(Integer.valueOf(2), library.countByDecade().get(1880));
+		assertEquals("Nana", library.booksBetween(1880, 1889).get(0).getTitle());
+		library.setSortIndexed(true);
+		library.setSortIndexed(false);
+		assertEquals(1860, library.sortByYear(true).get(0).getYear());
+		assertEquals(3, library.countBetween(1870, 2010));
+	}
+
+	@Test
+	public void year_Queries_Should_Neither_Change_The_Sorts_Nor_Go_Stale(){
+		Book zeta = new Book("Zeta", new Author("A", "B"), 1900);
+		Book alpha = new Book("Alpha", new Author("A", "B"), 1900);
+		Library queried = new Library(Arrays.asList(zeta, alpha), 2);
+		assertEquals(2, queried.countBetween(1900, 1900));
+		queried.reshelve(Arrays.asList(alpha, zeta));
+		assertEquals(YearSort.sort(queried.getViewOfAllTheBooks(), true), queried.sortByYear(true));
+		assertEquals(Arrays.asList(alpha, zeta), queried.booksBetween(1900, 1900));
+		alpha.setYear(1500);
+		assertEquals(1, queried.countBetween(1400, 1600));
+		assertEquals(Arrays.asList(alpha), queried.oldest(1));
+	}
+
+	@Test
+	public void topK_Should_Give_The_First_Books_Of_The_Full_Sorts(){
+		List<Book> books = new ArrayList<>();
+		Random random = new Random(14);
+		for (int i = 0; i < 2000; i++)
+			books.add(new Book("T" + random.nextInt(300), new Author("A", "B"), 1900 + random.nextInt(50)));
+		Library big = new Library(books, 18);
+		for (int k : new int[] { 0, 1, 20, 3000 }) {
+			assertEquals(big.sortByYear(true).subList(0, Math.min(k, 2000)), big.oldest(k));
+			assertEquals(big.sortByYear(false).subList(0, Math.min(k, 2000)), big.newest(k));
+			assertEquals(big.sortByTitle().subList(0, Math.min(k, 2000)), big.firstByTitle(k));
+		}
+		assertEquals(2000, big.oldest(Integer.MAX_VALUE).size());
+		big.setSortIndexed(true);
+		assertEquals(big.sortByYear(true).subList(0, 20), big.oldest(20));
+		assertEquals(big.sortByYear(false).subList(0, 20), big.newest(20));
+		assertEquals(big.sortByTitle().subList(0, 20), big.firstByTitle(20));
+	}
+
+	@Test
+	public void getBook_Should_Find_The_Books_By_Identifier(){
+		Book nana = new Book("Nana", new Author("ZOLA", "Émile"), 1880);
+		nana.setId(42);
+		assertEquals(null, library.getBook(42));
+		library.addBook(nana);
+		assertEquals(nana, library.getBook(42));
+		library.removeBook(nana);
+		assertEquals(null, library.getBook(42));
+	}
+
 	@After
 	public void afterTest(){
 		library = null;
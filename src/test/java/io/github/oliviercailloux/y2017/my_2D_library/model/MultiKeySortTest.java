@@ -0,0 +1,60 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiKeySortTest {
+
+	List<Book> books;
+
+	@Before
+	public void setUp() {
+		books = new ArrayList<>();
+		String[] lastNames = { "HUGO", "Hugo", "ÉLUARD", "CHUNG", "zola", "Zola" };
+		String[] firstNames = { "Victor", "Paul", "Émile", "Hugo" };
+		Random random = new Random(3);
+		for (int i = 0; i < 3000; i++) {
+			Author author = new Author(lastNames[random.nextInt(lastNames.length)],
+					firstNames[random.nextInt(firstNames.length)]);
+			books.add(new Book("Titre " + random.nextInt(50), author, 1900 + random.nextInt(30)));
+		}
+	}
+
+	@Test
+	public void sort_Should_Sort_By_Author_Then_Year_Descending() {
+		List<Book> three = new ArrayList<>();
+		three.add(new Book("Les Misérables", new Author("HUGO", "Victor"), 1862));
+		three.add(new Book("Un jour en enfer", new Author("CHUNG", "Hugo"), 2002));
+		three.add(new Book("Notre-Dame de Paris", new Author("HUGO", "Victor"), 1831));
+		List<Book> sorted = MultiKeySort.by(SortCriterion.AUTHOR, true).then(SortCriterion.YEAR, false).sort(three);
+		assertEquals("Un jour en enfer", sorted.get(0).getTitle());
+		assertEquals("Les Misérables", sorted.get(1).getTitle());
+		assertEquals("Notre-Dame de Paris", sorted.get(2).getTitle());
+	}
+
+	@Test
+	public void sort_Should_Give_The_Order_Of_Its_Comparator() {
+		MultiKeySort sort = MultiKeySort.by(SortCriterion.AUTHOR, true).then(SortCriterion.FIRST_NAME, false)
+				.then(SortCriterion.YEAR, false);
+		List<Book> expected = new ArrayList<>(books);
+		expected.sort(sort.comparator());
+		assertEquals(expected, sort.sort(books));
+		// the keys no longer fit in a long
+		assertEquals(expected, sort.sort(books, 0));
+	}
+
+	@Test
+	public void sort_Should_Keep_The_Order_Of_Equal_Books() {
+		MultiKeySort sort = MultiKeySort.by(SortCriterion.TITLE, false);
+		List<Book> expected = new ArrayList<>(books);
+		expected.sort(sort.comparator());
+		assertEquals(expected, sort.sort(books));
+		assertEquals(expected, sort.sort(books, 0));
+	}
+}
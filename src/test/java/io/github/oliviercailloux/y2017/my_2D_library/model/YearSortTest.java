@@ -0,0 +1,67 @@
+package io.github.oliviercailloux.y2017.my_2D_library.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class YearSortTest {
+
+	@Test
+	public void sort_Should_Put_The_Older_First_When_Rising() {
+		List<Book> books = new ArrayList<>();
+		books.add(new Book("Une vie de coccinelle", new Author("CHUNG", "Hugo"), 2015));
+		books.add(new Book("Harry Poopper", new Author("ROWLING", "JK"), 2005));
+		books.add(new Book("Les misérables", new Author("BAUDELAIRE", "Charles"), 1860));
+
+		List<Book> rising = YearSort.sort(books, true);
+		assertEquals(1860, rising.get(0).getYear());
+		assertEquals(2005, rising.get(1).getYear());
+		assertEquals(2015, rising.get(2).getYear());
+
+		List<Book> falling = YearSort.sort(books, false);
+		assertEquals(2015, falling.get(0).getYear());
+		assertEquals(2005, falling.get(1).getYear());
+		assertEquals(1860, falling.get(2).getYear());
+	}
+
+	@Test
+	public void sort_Should_Give_The_Same_Order_As_The_Insertion_Sort() {
+		Random random = new Random(42);
+		List<Book> narrow = new ArrayList<>();
+		List<Book> wide = new ArrayList<>();
+		for (int index = 0; index < 500; index++) {
+			narrow.add(new Book("n" + index, new Author("A", "B"), 1900 + random.nextInt(20)));
+			wide.add(new Book("w" + index, new Author("A", "B"), random.nextInt(8) * 1000000 - 4000000));
+		}
+		for (boolean rising : new boolean[] { true, false }) {
+			assertSameBooks(insertionSort(narrow, rising), YearSort.sort(narrow, rising));
+			assertSameBooks(insertionSort(wide, rising), YearSort.sort(wide, rising));
+		}
+	}
+
+	private void assertSameBooks(List<Book> expected, List<Book> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int index = 0; index < expected.size(); index++)
+			assertSame(expected.get(index), actual.get(index));
+	}
+
+	/**
+	 * The sort formerly used by Library.sortByYear.
+	 */
+	private List<Book> insertionSort(List<Book> toSort, boolean rising) {
+		List<Book> sortedBooks = new ArrayList<Book>();
+		for (Book book : toSort) {
+			int index = 0;
+			while (index < sortedBooks.size()
+					&& !(rising ? book.compareYear(sortedBooks.get(index)) : sortedBooks.get(index).compareYear(book)))
+				index++;
+			sortedBooks.add(index, book);
+		}
+		return sortedBooks;
+	}
+}